@@ -0,0 +1,80 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of writing and reading exports to and from disk, plain and gzip-compressed. The size of the export in
+ * bytes is reported as the {@code bytes} secondary result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    @Param({"JSON", "NDJSON"})
+    MessagesWriter.Format format;
+
+    @Param({"false", "true"})
+    boolean compressed;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ExportSize {
+
+        public long bytes;
+    }
+
+    private List<Message> messages;
+    private Path export;
+    private Path output;
+    private long bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        messages = SyntheticCorpus.defaults().generate(size);
+        var suffix = format.extension() + (compressed ? MessagesWriter.GZIP_EXTENSION : "");
+        export = Files.createTempFile("slack-sleuth-benchmark", suffix);
+        output = Files.createTempFile("slack-sleuth-benchmark", suffix);
+        try (var writer = MessagesWriter.open(export, format)) {
+            writer.write(messages);
+        }
+        bytes = Files.size(export);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(export);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole, ExportSize exportSize) throws IOException {
+        exportSize.bytes = bytes;
+        try (var reader = MessagesReader.open(export)) {
+            reader.forEach(blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public long write(ExportSize exportSize) throws IOException {
+        exportSize.bytes = bytes;
+        try (var writer = MessagesWriter.open(output, format)) {
+            writer.write(messages);
+            return writer.count();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package pl.codeleak.slack.sleuth;
+
+import org.openjdk.jmh.annotations.*;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end export of channel histories from a {@link MockSlack} workspace to disk, through the real
+ * {@link ConversationsHistory} and {@link SlackClient}. Besides the time of the export, every iteration prints
+ * the rate in messages per second and the peak heap usage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HistoryExportBenchmark {
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"1", "4"})
+    int channels;
+
+    @Param({"0", "20"})
+    int latencyMillis;
+
+    @Param({"0", "4"})
+    int prefetch;
+
+    private MockSlack slack;
+    private SlackClient client;
+    private Path output;
+    private long started;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        slack = new MockSlack(channels, size / channels).latency(Duration.ofMillis(latencyMillis));
+        client = slack.client();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        slack.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() throws IOException {
+        output = Files.createTempDirectory("slack-sleuth-benchmark");
+        System.gc();
+        heap().forEach(MemoryPoolMXBean::resetPeakUsage);
+        started = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() throws IOException {
+        var seconds = (System.nanoTime() - started) / 1e9;
+        var peakHeap = heap().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        System.out.printf("%nExported %d messages at %.0f messages/s, peak heap %d MB%n",
+                size, size / seconds, peakHeap >> 20);
+        try (Stream<Path> files = Files.walk(output)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int export() {
+        var history = new ConversationsHistory();
+        new CommandLine(history).parseArgs("--prefetch", String.valueOf(prefetch), "--concurrency", String.valueOf(channels));
+        List<String> ids = IntStream.range(0, channels).mapToObj(MockSlack::channelId).toList();
+        return history.fetchHistories(client, "token", ids, TimeRange.builder().build(), output);
+    }
+
+    // peaks of pools are summed, so it is an upper bound of the peak of the whole heap
+    private static Stream<MemoryPoolMXBean> heap() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream().filter(pool -> pool.getType() == MemoryType.HEAP);
+    }
+}
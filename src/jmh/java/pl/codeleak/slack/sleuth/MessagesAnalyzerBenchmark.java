@@ -0,0 +1,70 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class MessagesAnalyzerBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    int size;
+
+    private final MessagesAnalyzer analyzer = new MessagesAnalyzer();
+    private List<Message> messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        messages = SyntheticCorpus.defaults().generate(size);
+    }
+
+    @Benchmark
+    public void extractMentionedUsers(Blackhole blackhole) {
+        for (Message message : messages) {
+            blackhole.consume(MessagesAnalyzer.extractMentionedUsers(message.getText()));
+        }
+    }
+
+    @Benchmark
+    public void extractTags(Blackhole blackhole) {
+        for (Message message : messages) {
+            blackhole.consume(MessagesAnalyzer.extractTags(message.getText()));
+        }
+    }
+
+    @Benchmark
+    public Map<String, List<Message>> groupByMentionedUser() {
+        return analyzer.groupByMentionedUser(messages);
+    }
+
+    @Benchmark
+    public Map<String, List<Message>> groupByPostingUser() {
+        return analyzer.groupByPostingUser(messages);
+    }
+
+    @Benchmark
+    public Map<String, List<Message>> groupByTags() {
+        return analyzer.groupByTags(messages);
+    }
+
+    @Benchmark
+    public List<Message> sortByReactions() {
+        return analyzer.sortByReactions(messages);
+    }
+
+    @Benchmark
+    public MessagesStatistics statistics() {
+        var statistics = new MessagesStatistics(3, false);
+        messages.forEach(statistics);
+        return statistics;
+    }
+}
@@ -0,0 +1,59 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class MessagesExportBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    int size;
+
+    @Param({"JSON", "NDJSON"})
+    MessagesWriter.Format format;
+
+    private List<Message> messages;
+    private Path export;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        messages = SyntheticCorpus.defaults().generate(size);
+        export = Files.createTempFile("slack-sleuth-benchmark", ".json");
+        try (var writer = MessagesWriter.open(export, format)) {
+            writer.write(messages);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(export);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        try (var reader = MessagesReader.open(export)) {
+            reader.forEach(blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        try (var writer = new MessagesWriter(Writer.nullWriter(), format)) {
+            writer.write(messages);
+            return writer.count();
+        }
+    }
+}
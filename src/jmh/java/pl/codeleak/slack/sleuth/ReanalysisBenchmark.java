@@ -0,0 +1,62 @@
+package pl.codeleak.slack.sleuth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analysis of an existing export, from reading the file to the statistics, for each export format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ReanalysisBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int size;
+
+    @Param({"JSON", "NDJSON", "COLUMNAR"})
+    MessagesWriter.Format format;
+
+    private Path export;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        export = Files.createTempFile("slack-sleuth-benchmark", format.extension());
+        try (var writer = MessagesWriter.open(export, format)) {
+            SyntheticCorpus.defaults().generate(size, message -> {
+                try {
+                    writer.write(message);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(export);
+    }
+
+    @Benchmark
+    public MessagesStatistics analyze() throws IOException {
+        var statistics = new MessagesStatistics(3, false);
+        if (format == MessagesWriter.Format.COLUMNAR) {
+            try (var reader = ColumnarReader.open(export)) {
+                reader.forEachCompact(0, reader.count(), statistics::accept);
+            }
+        } else {
+            try (var reader = MessagesReader.open(export)) {
+                reader.forEach(statistics);
+            }
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,77 @@
+package pl.codeleak.slack.sleuth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap retained by messages read from an export and kept as they are parsed, or projected to
+ * {@link CompactMessage}s like the analyzer keeps them. The heap used after a full GC, per message, is reported as
+ * the {@code bytesPerMessage} secondary result; the time of the benchmark itself is of no interest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RetainedHeapBenchmark {
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean compact;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedHeap {
+
+        public long bytesPerMessage;
+    }
+
+    private Path export;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        export = Files.createTempFile("slack-sleuth-benchmark", MessagesWriter.Format.JSON.extension());
+        try (var writer = MessagesWriter.open(export, MessagesWriter.Format.JSON)) {
+            SyntheticCorpus.defaults().generate(size, message -> {
+                try {
+                    writer.write(message);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(export);
+    }
+
+    @Benchmark
+    public List<Object> retain(RetainedHeap heap) throws IOException {
+        var before = usedAfterGc();
+        var retained = new ArrayList<Object>(size);
+        try (var reader = MessagesReader.open(export)) {
+            reader.forEach(message -> retained.add(compact ? CompactMessage.of(message) : message));
+        }
+        heap.bytesPerMessage = (usedAfterGc() - before) / size;
+        // returned, so the messages are still reachable when the heap is measured
+        return retained;
+    }
+
+    private static long usedAfterGc() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -4,15 +4,48 @@ import lombok.extern.slf4j.Slf4j;
 import picocli.CommandLine;
 import picocli.CommandLine.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 @Slf4j
-@Command(name = "App", subcommands = {ConversationsList.class, ConversationsHistory.class, MessagesAnalyzer.class, UsersInfo.class})
+@Command(name = "App", subcommands = {ConversationsList.class, ConversationsHistory.class, MessagesAnalyzer.class, MessagesSearch.class, MessagesTrends.class, MessagesServer.class, UsersInfo.class})
 class App {
 
     @Option(names = {"-t", "--token"}, required = true)
     protected String slackToken;
 
+    @Option(names = {"--api-url"})
+    protected String apiUrl;
+
+    @Option(names = {"--metrics"})
+    protected Path metrics;
+
+    @Option(names = {"--metrics-format"})
+    protected Metrics.Format metricsFormat = Metrics.Format.JSON;
+
+    private SlackClient slackClient;
+
     public static void main(String[] args) {
-        int result = new CommandLine(new App()).execute(args);
+        var app = new App();
+        int result = new CommandLine(app).execute(args);
+        if (app.slackClient != null) {
+            log.info("Slack API usage: {}", app.slackClient.stats());
+        }
+        if (app.metrics != null) {
+            try {
+                Metrics.global().write(app.metrics, app.metricsFormat);
+                log.info("Saved metrics to {}", app.metrics.toAbsolutePath());
+            } catch (IOException e) {
+                log.error("Error while saving metrics: {}", e.getMessage(), e);
+            }
+        }
         System.exit(result);
     }
+
+    synchronized SlackClient slackClient() {
+        if (slackClient == null) {
+            slackClient = SlackClient.connect(apiUrl);
+        }
+        return slackClient;
+    }
 }
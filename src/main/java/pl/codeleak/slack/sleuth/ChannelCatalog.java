@@ -0,0 +1,207 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.methods.SlackApiException;
+import com.slack.api.model.Conversation;
+import com.slack.api.util.json.GsonFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Public channels of the workspace, cached on disk between runs.
+ * <p>
+ * The channel list is fetched again once the snapshot is older than {@code ttl}; until then lookups make no API calls.
+ * The snapshot records the workspace it was fetched from. With another token, the workspace of the token is looked up
+ * with {@code auth.test}, and a snapshot of a different workspace is fetched again.
+ * Names are searched by substring through an in-memory index of trigrams, so a search only checks channels sharing
+ * the rarest trigram of the term. A refresh re-indexes only channels that were added, renamed or removed.
+ */
+@Slf4j
+final class ChannelCatalog {
+
+    private static final int GRAM = 3;
+
+    static final class Entry {
+        String id;
+        String name;
+    }
+
+    static final class Snapshot {
+        long fetchedAt;
+        String teamId;
+        // SHA-256 of the last token used, so the workspace is not looked up again for the same token
+        String tokenHash;
+        List<Entry> channels = new ArrayList<>();
+    }
+
+    private final Path path;
+    private final long ttlMillis;
+    private final LongSupplier currentTimeMillis;
+    private Snapshot snapshot = new Snapshot();
+    private final Map<String, Entry> channels = new LinkedHashMap<>();
+    private final Map<String, Set<String>> grams = new HashMap<>();
+
+    private ChannelCatalog(Path path, Duration ttl, LongSupplier currentTimeMillis) {
+        this.path = path;
+        this.ttlMillis = ttl.toMillis();
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    static ChannelCatalog load(Path path, Duration ttl) throws IOException {
+        return load(path, ttl, System::currentTimeMillis);
+    }
+
+    static ChannelCatalog load(Path path, Duration ttl, LongSupplier currentTimeMillis) throws IOException {
+        var catalog = new ChannelCatalog(path, ttl, currentTimeMillis);
+        if (Files.exists(path)) {
+            var saved = GsonFactory.createSnakeCase().fromJson(Files.readString(path), Snapshot.class);
+            if (saved != null) {
+                catalog.snapshot = saved;
+                saved.channels.forEach(catalog::add);
+            }
+        }
+        return catalog;
+    }
+
+    void save() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        snapshot.channels = new ArrayList<>(channels.values());
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temporary, GsonFactory.createSnakeCase().toJson(snapshot));
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    boolean isFresh() {
+        return currentTimeMillis.getAsLong() - snapshot.fetchedAt < ttlMillis;
+    }
+
+    /**
+     * Fetches channels again and saves the snapshot, unless it is still fresh and of the workspace of the token.
+     *
+     * @return {@code true} if channels were fetched
+     */
+    boolean refresh(SlackClient client, String token) throws IOException {
+        var tokenHash = hash(token);
+        if (isFresh() && tokenHash.equals(snapshot.tokenHash)) {
+            return false;
+        }
+        var teamId = teamOf(client, token);
+        if (isFresh() && teamId.equals(snapshot.teamId)) {
+            snapshot.tokenHash = tokenHash;
+            save();
+            return false;
+        }
+        if (snapshot.teamId != null && !teamId.equals(snapshot.teamId)) {
+            log.info("Channels cache {} belongs to another workspace, fetching channels of {}", path, teamId);
+        }
+        update(new ConversationsList().listConversations(client, token), currentTimeMillis.getAsLong());
+        snapshot.teamId = teamId;
+        snapshot.tokenHash = tokenHash;
+        save();
+        return true;
+    }
+
+    private static String teamOf(SlackClient client, String token) throws IOException {
+        try {
+            var result = client.call("auth.test", methods -> methods.authTest(r -> r.token(token)));
+            if (!result.isOk()) {
+                throw new IOException("Slack Web API failure. Error: '" + result.getError() + "'");
+            }
+            return result.getTeamId();
+        } catch (SlackApiException e) {
+            throw new IOException("Error while looking up workspace: " + e.getMessage(), e);
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void update(List<Conversation> conversations, long fetchedAt) {
+        var fetched = new LinkedHashMap<String, String>();
+        conversations.forEach(conversation -> fetched.put(conversation.getId(), conversation.getName()));
+        var changed = 0;
+        for (var channel : List.copyOf(channels.values())) {
+            if (!Objects.equals(fetched.get(channel.id), channel.name)) {
+                remove(channel);
+                changed++;
+            }
+        }
+        for (var channel : fetched.entrySet()) {
+            if (!channels.containsKey(channel.getKey())) {
+                var entry = new Entry();
+                entry.id = channel.getKey();
+                entry.name = channel.getValue();
+                add(entry);
+                changed++;
+            }
+        }
+        snapshot.fetchedAt = fetchedAt;
+        log.info("Fetched {} channel(s), {} changed", fetched.size(), changed);
+    }
+
+    List<Entry> channels() {
+        return List.copyOf(channels.values());
+    }
+
+    /**
+     * @return channels with names containing the term, ignoring case
+     */
+    List<Entry> search(String term) {
+        var lowerCase = term.toLowerCase(Locale.ROOT);
+        Collection<Entry> candidates = channels.values();
+        if (lowerCase.length() >= GRAM) {
+            Set<String> rarest = null;
+            for (int i = 0; i + GRAM <= lowerCase.length(); i++) {
+                var ids = grams.getOrDefault(lowerCase.substring(i, i + GRAM), Set.of());
+                if (rarest == null || ids.size() < rarest.size()) {
+                    rarest = ids;
+                }
+            }
+            candidates = rarest.stream().map(channels::get).toList();
+        }
+        return candidates.stream()
+                .filter(channel -> key(channel).contains(lowerCase))
+                .sorted(Comparator.comparing(ChannelCatalog::key))
+                .toList();
+    }
+
+    private void add(Entry channel) {
+        channels.put(channel.id, channel);
+        var name = key(channel);
+        for (int i = 0; i + GRAM <= name.length(); i++) {
+            grams.computeIfAbsent(name.substring(i, i + GRAM), gram -> new HashSet<>()).add(channel.id);
+        }
+    }
+
+    private void remove(Entry channel) {
+        channels.remove(channel.id);
+        var name = key(channel);
+        for (int i = 0; i + GRAM <= name.length(); i++) {
+            var gram = name.substring(i, i + GRAM);
+            var ids = grams.get(gram);
+            if (ids != null && ids.remove(channel.id) && ids.isEmpty()) {
+                grams.remove(gram);
+            }
+        }
+    }
+
+    private static String key(Entry channel) {
+        return channel.name == null ? "" : channel.name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,206 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import com.slack.api.model.Reaction;
+import pl.codeleak.slack.sleuth.ColumnarWriter.Column;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Reads an export written by {@link ColumnarWriter}. Columns are memory-mapped, so only the pages that are
+ * actually read are loaded.
+ * <p>
+ * Messages can be read by index range, and ranges can be read from several threads at once. Read messages carry
+ * only the fields kept by the export; reactions are represented by a single reaction holding their total count.
+ */
+final class ColumnarReader implements Closeable {
+
+    private final FileChannel channel;
+    private final int count;
+    private final Map<Column, ByteBuffer> columns = new EnumMap<>(Column.class);
+    private final String[] users;
+    private final String[] tags;
+
+    private ColumnarReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        var header = ByteBuffer.allocate(ColumnarWriter.HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < ColumnarWriter.HEADER_SIZE || header.getInt() != ColumnarWriter.MAGIC) {
+            throw new IOException("Not a columnar export");
+        }
+        var version = header.getInt();
+        if (version != ColumnarWriter.VERSION) {
+            throw new IOException("Unsupported columnar export version " + version);
+        }
+        this.count = header.getInt();
+        for (Column column : Column.values()) {
+            var offset = header.getLong();
+            var length = header.getLong();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Column " + column + " is too large to be mapped, split the export");
+            }
+            columns.put(column, channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+        }
+        this.users = dictionary(columns.get(Column.USERS_DICTIONARY));
+        this.tags = dictionary(columns.get(Column.TAGS_DICTIONARY));
+    }
+
+    static ColumnarReader open(Path input) throws IOException {
+        var channel = FileChannel.open(input, StandardOpenOption.READ);
+        try {
+            return new ColumnarReader(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return {@code true} if the file starts like a columnar export
+     */
+    static boolean isColumnar(Path input) throws IOException {
+        try (var channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            var magic = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(magic, 0);
+            return !magic.hasRemaining() && magic.getInt(0) == ColumnarWriter.MAGIC;
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Passes messages from {@code from} (inclusive) to {@code to} (exclusive) along with their mentions and tags.
+     * The tokens instance is reused between messages.
+     */
+    void forEach(int from, int to, BiConsumer<? super Message, ? super MessagesStatistics.Tokens> action) {
+        var tokens = new RecordTokens();
+        for (int i = from; i < to; i++) {
+            tokens.position(i);
+            action.accept(message(i), tokens);
+        }
+    }
+
+    /**
+     * Like {@link #forEach}, but passes {@link CompactMessage projections}, which the export holds all fields of.
+     */
+    void forEachCompact(int from, int to, BiConsumer<? super CompactMessage, ? super MessagesStatistics.Tokens> action) {
+        var tokens = new RecordTokens();
+        for (int i = from; i < to; i++) {
+            tokens.position(i);
+            action.accept(compact(i), tokens);
+        }
+    }
+
+    /**
+     * @return {@code ts} of the message in microseconds, read without decoding the message
+     */
+    long micros(int i) {
+        return columns.get(Column.TS).getLong(i * Long.BYTES);
+    }
+
+    Message message(int i) {
+        var message = new Message();
+        message.setTs(ColumnarWriter.ts(micros(i)));
+        message.setUser(lookup(users, columns.get(Column.USER).getInt(i * Integer.BYTES)));
+        message.setText(text(i));
+        var reactions = columns.get(Column.REACTIONS).getInt(i * Integer.BYTES);
+        if (reactions > 0) {
+            var reaction = new Reaction();
+            reaction.setCount(reactions);
+            message.setReactions(List.of(reaction));
+        }
+        message.setReplyCount(columns.get(Column.REPLY_COUNT).getInt(i * Integer.BYTES));
+        message.setReplyUsersCount(columns.get(Column.REPLY_USERS_COUNT).getInt(i * Integer.BYTES));
+        return message;
+    }
+
+    CompactMessage compact(int i) {
+        return new CompactMessage(ColumnarWriter.ts(micros(i)), lookup(users, columns.get(Column.USER).getInt(i * Integer.BYTES)),
+                text(i), columns.get(Column.REACTIONS).getInt(i * Integer.BYTES),
+                columns.get(Column.REPLY_COUNT).getInt(i * Integer.BYTES),
+                columns.get(Column.REPLY_USERS_COUNT).getInt(i * Integer.BYTES), (byte) 0);
+    }
+
+    private String text(int i) {
+        var offset = columns.get(Column.TEXT_OFFSET).getLong(i * Long.BYTES);
+        var length = columns.get(Column.TEXT_LENGTH).getInt(i * Integer.BYTES);
+        var bytes = new byte[length];
+        columns.get(Column.TEXT).get((int) offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String lookup(String[] dictionary, int index) {
+        return index == ColumnarWriter.NONE ? null : dictionary[index];
+    }
+
+    private static String[] dictionary(ByteBuffer buffer) {
+        var position = 0;
+        var values = new String[buffer.getInt(position)];
+        position += Integer.BYTES;
+        for (int i = 0; i < values.length; i++) {
+            var length = buffer.getInt(position);
+            position += Integer.BYTES;
+            var bytes = new byte[length];
+            buffer.get(position, bytes);
+            position += length;
+            values[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Mentions and tags of the message at the current position.
+     */
+    private final class RecordTokens implements MessagesStatistics.Tokens {
+
+        private int mentionsFrom;
+        private int mentionsTo;
+        private int tagsFrom;
+        private int tagsTo;
+
+        void position(int i) {
+            mentionsFrom = i == 0 ? 0 : columns.get(Column.MENTIONS_END).getInt((i - 1) * Integer.BYTES);
+            mentionsTo = columns.get(Column.MENTIONS_END).getInt(i * Integer.BYTES);
+            tagsFrom = i == 0 ? 0 : columns.get(Column.TAGS_END).getInt((i - 1) * Integer.BYTES);
+            tagsTo = columns.get(Column.TAGS_END).getInt(i * Integer.BYTES);
+        }
+
+        @Override
+        public int mentionCount() {
+            return mentionsTo - mentionsFrom;
+        }
+
+        @Override
+        public String mention(int i) {
+            return users[columns.get(Column.MENTIONS).getInt((mentionsFrom + i) * Integer.BYTES)];
+        }
+
+        @Override
+        public int tagCount() {
+            return tagsTo - tagsFrom;
+        }
+
+        @Override
+        public String tag(int i) {
+            return tags[columns.get(Column.TAGS).getInt((tagsFrom + i) * Integer.BYTES)];
+        }
+    }
+}
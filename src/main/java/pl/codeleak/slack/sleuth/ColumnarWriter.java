@@ -0,0 +1,205 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import com.slack.api.model.Reaction;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Writes messages in a compact binary format, read back by {@link ColumnarReader}.
+ * <p>
+ * Only what the analyzer needs is kept, one column per field: {@code ts} as microseconds, the posting user,
+ * the total of reactions, reply and reply users counts and the text, stored as offset and length into a single
+ * UTF-8 blob. Mentions and tags are extracted while writing. Users (posting and mentioned) and tags are stored once
+ * in dictionaries and referred to by index.
+ * <p>
+ * Columns are streamed to temporary files while messages arrive and joined into the export on close.
+ * The export starts with a header holding the number of messages and the offset and length of every column.
+ */
+final class ColumnarWriter implements Closeable {
+
+    static final int MAGIC = 0x534C5448; // "SLTH"
+    static final int VERSION = 1;
+    static final int NONE = -1;
+
+    enum Column {
+        TS, USER, REACTIONS, REPLY_COUNT, REPLY_USERS_COUNT, TEXT_OFFSET, TEXT_LENGTH,
+        MENTIONS_END, MENTIONS, TAGS_END, TAGS, USERS_DICTIONARY, TAGS_DICTIONARY, TEXT
+    }
+
+    static final int HEADER_SIZE = 3 * Integer.BYTES + Column.values().length * 2 * Long.BYTES;
+
+    private final Path output;
+    private final Map<Column, Path> files = new EnumMap<>(Column.class);
+    private final Map<Column, DataOutputStream> columns = new EnumMap<>(Column.class);
+    private final Map<String, Integer> users = new HashMap<>();
+    private final Map<String, Integer> tags = new HashMap<>();
+    private final MessageTextScanner scanner = new MessageTextScanner();
+
+    private int count;
+    private long textSize;
+    private int mentionsEnd;
+    private int tagsEnd;
+
+    private ColumnarWriter(Path output) {
+        this.output = output;
+    }
+
+    static ColumnarWriter open(Path output) throws IOException {
+        var writer = new ColumnarWriter(output);
+        try {
+            for (Column column : Column.values()) {
+                if (column == Column.USERS_DICTIONARY || column == Column.TAGS_DICTIONARY) {
+                    continue;
+                }
+                var file = Files.createTempFile("slack-sleuth-" + column.name().toLowerCase(Locale.ROOT) + "-", ".column");
+                writer.files.put(column, file);
+                writer.columns.put(column, new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))));
+            }
+        } catch (IOException e) {
+            writer.deleteColumns();
+            throw e;
+        }
+        return writer;
+    }
+
+    void write(Message message) throws IOException {
+        if (count == Integer.MAX_VALUE) {
+            throw new IOException("Too many messages for a columnar export");
+        }
+        column(Column.TS).writeLong(micros(message.getTs()));
+        column(Column.USER).writeInt(intern(users, message.getUser()));
+        column(Column.REACTIONS).writeInt(Optional.ofNullable(message.getReactions()).orElse(List.of())
+                .stream()
+                .mapToInt(Reaction::getCount)
+                .sum());
+        column(Column.REPLY_COUNT).writeInt(Optional.ofNullable(message.getReplyCount()).orElse(0));
+        column(Column.REPLY_USERS_COUNT).writeInt(Optional.ofNullable(message.getReplyUsersCount()).orElse(0));
+
+        var text = message.getText() == null ? new byte[0] : message.getText().getBytes(StandardCharsets.UTF_8);
+        column(Column.TEXT_OFFSET).writeLong(textSize);
+        column(Column.TEXT_LENGTH).writeInt(text.length);
+        column(Column.TEXT).write(text);
+        textSize += text.length;
+
+        scanner.scan(message.getText());
+        for (int i = 0; i < scanner.mentionCount(); i++) {
+            column(Column.MENTIONS).writeInt(intern(users, scanner.mention(i)));
+        }
+        mentionsEnd += scanner.mentionCount();
+        column(Column.MENTIONS_END).writeInt(mentionsEnd);
+        for (int i = 0; i < scanner.tagCount(); i++) {
+            column(Column.TAGS).writeInt(intern(tags, scanner.tag(i)));
+        }
+        tagsEnd += scanner.tagCount();
+        column(Column.TAGS_END).writeInt(tagsEnd);
+
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            for (DataOutputStream column : columns.values()) {
+                column.close();
+            }
+            var sections = new EnumMap<Column, byte[]>(Column.class);
+            sections.put(Column.USERS_DICTIONARY, dictionary(users));
+            sections.put(Column.TAGS_DICTIONARY, dictionary(tags));
+
+            var header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(count);
+            long offset = HEADER_SIZE;
+            for (Column column : Column.values()) {
+                var length = sections.containsKey(column) ? sections.get(column).length : Files.size(files.get(column));
+                header.putLong(offset).putLong(length);
+                offset += length;
+            }
+
+            try (var channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(header.flip());
+                for (Column column : Column.values()) {
+                    if (sections.containsKey(column)) {
+                        channel.write(ByteBuffer.wrap(sections.get(column)));
+                        continue;
+                    }
+                    try (var source = FileChannel.open(files.get(column), StandardOpenOption.READ)) {
+                        var size = source.size();
+                        for (long position = 0; position < size; ) {
+                            position += source.transferTo(position, size - position, channel);
+                        }
+                    }
+                }
+            }
+        } finally {
+            deleteColumns();
+        }
+    }
+
+    private DataOutputStream column(Column column) {
+        return columns.get(column);
+    }
+
+    private void deleteColumns() throws IOException {
+        for (Path file : files.values()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static int intern(Map<String, Integer> dictionary, String value) {
+        return value == null ? NONE : dictionary.computeIfAbsent(value, key -> dictionary.size());
+    }
+
+    /**
+     * Values ordered by index, each as its length followed by UTF-8 bytes.
+     */
+    private static byte[] dictionary(Map<String, Integer> dictionary) throws IOException {
+        var values = new String[dictionary.size()];
+        dictionary.forEach((value, index) -> values[index] = value);
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(values.length);
+            for (String value : values) {
+                var encoded = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return {@code ts} as microseconds since the epoch, -1 if it is missing
+     */
+    static long micros(String ts) {
+        if (ts == null || ts.isEmpty()) {
+            return NONE;
+        }
+        return new BigDecimal(ts).movePointRight(6).longValueExact();
+    }
+
+    static String ts(long micros) {
+        if (micros == NONE) {
+            return null;
+        }
+        return BigDecimal.valueOf(micros, 6).toPlainString();
+    }
+}
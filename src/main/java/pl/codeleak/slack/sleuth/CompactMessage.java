@@ -0,0 +1,61 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import com.slack.api.model.Reaction;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The part of a {@link Message} that the analyzer needs. A Slack message carries dozens of fields besides these,
+ * e.g. blocks, attachments and files, so retained messages take a fraction of the memory once projected.
+ * {@code RetainedHeapBenchmark} measures the heap retained per message either way.
+ *
+ * @param reactions total count of all reactions
+ * @param flags     {@link #SUBTYPE}, {@link #HIDDEN} and {@link #INTRO} bits
+ */
+record CompactMessage(String ts, String user, String text, int reactions, int replyCount, int replyUsersCount,
+                      byte flags) {
+
+    static final byte SUBTYPE = 1;
+    static final byte HIDDEN = 1 << 1;
+    static final byte INTRO = 1 << 2;
+
+    static CompactMessage of(Message message) {
+        return new CompactMessage(message.getTs(), message.getUser(), message.getText(),
+                Optional.ofNullable(message.getReactions()).orElse(List.of()).stream()
+                        .mapToInt(Reaction::getCount)
+                        .sum(),
+                Optional.ofNullable(message.getReplyCount()).orElse(0),
+                Optional.ofNullable(message.getReplyUsersCount()).orElse(0),
+                flags(message));
+    }
+
+    static byte flags(Message message) {
+        var flags = 0;
+        if (message.getSubtype() != null && !message.getSubtype().isEmpty()) {
+            flags |= SUBTYPE;
+        }
+        if (message.isHidden()) {
+            flags |= HIDDEN;
+        }
+        if (message.isIntro()) {
+            flags |= INTRO;
+        }
+        return (byte) flags;
+    }
+
+    /**
+     * @return {@code true} for a regular message, posted by a user and visible in the channel
+     */
+    boolean isRegular() {
+        return flags == 0;
+    }
+
+    /**
+     * @return sum of reactions, replies and reply users, by which popular messages are ranked
+     */
+    int reactionsScore() {
+        return reactions + replyCount + replyUsersCount;
+    }
+}
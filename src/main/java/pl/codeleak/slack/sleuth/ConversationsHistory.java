@@ -1,22 +1,27 @@
 package pl.codeleak.slack.sleuth;
 
-import com.slack.api.Slack;
 import com.slack.api.methods.SlackApiException;
+import com.slack.api.methods.response.conversations.ConversationsHistoryResponse;
 import com.slack.api.model.Message;
-import com.slack.api.util.json.GsonFactory;
 import lombok.extern.slf4j.Slf4j;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.ParentCommand;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Collections.emptyList;
@@ -27,8 +32,17 @@ class ConversationsHistory implements Callable<Integer> {
 
     public static final int DEFAULT_LIMIT = 200;
 
-    @Option(names = {"-c", "--channel"}, required = true)
-    private String channelId;
+    @Option(names = {"-c", "--channel"}, split = ",")
+    private List<String> channelIds = new ArrayList<>();
+
+    @Option(names = {"--search"})
+    private Optional<String> searchTerm = Optional.empty();
+
+    @Option(names = {"--channels-cache"}, defaultValue = "${sys:user.home}/.slack-sleuth/channels.json")
+    private Path channelsCache;
+
+    @Option(names = {"--channels-cache-ttl-hours"}, defaultValue = "1")
+    private int channelsCacheTtlHours;
 
     @Option(names = {"-s", "--start"})
     private LocalDateTime oldest;
@@ -39,91 +53,438 @@ class ConversationsHistory implements Callable<Integer> {
     @Option(names = {"-o", "--output"})
     private Path output;
 
-    @ParentCommand
-    private App app;
+    @Option(names = {"-f", "--format"})
+    private MessagesWriter.Format format = MessagesWriter.Format.JSON;
 
-    @Override
-    public Integer call() {
-        return fetchHistory(
-                app.slackToken,
-                channelId,
-                new TimeRange.TimeRangeBuilder().from(oldest).to(latest).build()
-        );
+    private int concurrency = 4;
+
+    @Option(names = {"--concurrency"}, defaultValue = "4")
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "Value for `concurrency` must be greater than 0");
+        }
+        this.concurrency = concurrency;
     }
 
+    @Option(names = {"-i", "--incremental"})
+    private boolean incremental;
 
-    int fetchHistory(String token, String channel, TimeRange timeRange) {
-        var client = Slack.getInstance().methods();
+    @Option(names = {"--slice-days"})
+    private int sliceDays;
 
-        var messages = new ArrayList<Message>();
-        var hasMoreResults = false;
-        var nextCursor = new AtomicReference<>("");
+    @Option(names = {"-r", "--replies"})
+    private boolean replies;
 
-        do {
+    @Option(names = {"--segments"})
+    private SegmentWriter.Partitioning segments;
+
+    @Option(names = {"--prefetch"})
+    private int prefetch = 4;
+
+    @CommandLine.Spec
+    CommandLine.Model.CommandSpec spec;
+
+    @ParentCommand
+    private App app;
+
+    @Override
+    public Integer call() {
+        var client = app.slackClient();
+        var timeRange = new TimeRange.TimeRangeBuilder().from(oldest).to(latest).build();
+
+        var channels = new LinkedHashSet<>(channelIds);
+        if (searchTerm.isPresent()) {
             try {
-                var result = client.conversationsHistory(r -> r
-                        .token(token)
-                        .channel(channel)
-                        .oldest(timeRange.from())
-                        .latest(timeRange.to())
-                        .limit(DEFAULT_LIMIT)
-                        .cursor(nextCursor.get())
-                );
+                var catalog = ChannelCatalog.load(channelsCache, Duration.ofHours(channelsCacheTtlHours));
+                catalog.refresh(client, app.slackToken);
+                catalog.search(searchTerm.get()).forEach(channel -> channels.add(channel.id));
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                return -1;
+            }
+        }
 
-                if (!result.isOk()) {
-                    log.error("Slack Web API failure. Error: '{}'", result.getError());
-                    return -1;
-                }
+        if (format == MessagesWriter.Format.COLUMNAR && (output == null || incremental)) {
+            log.error("`--format COLUMNAR` requires `--output` and cannot be used with `--incremental`");
+            return -1;
+        }
+        if (output != null && MessagesWriter.isCompressed(output) && (incremental || format == MessagesWriter.Format.COLUMNAR)) {
+            log.error("Compressed `--output` cannot be used with `--incremental` or `--format COLUMNAR`");
+            return -1;
+        }
+        if (segments != null && (output == null || incremental)) {
+            log.error("`--segments` requires `--output` and cannot be used with `--incremental`");
+            return -1;
+        }
+        if (incremental && sliceDays > 0) {
+            log.error("`--incremental` and `--slice-days` cannot be used together");
+            return -1;
+        }
+        if (sliceDays > 0 && oldest == null) {
+            log.error("`--slice-days` requires `--start`");
+            return -1;
+        }
+        if (channels.isEmpty()) {
+            log.error("No channels to fetch, use `--channel` or `--search`");
+            return -1;
+        }
+        if (channels.size() == 1 && searchTerm.isEmpty()) {
+            return fetchHistory(client, app.slackToken, channels.iterator().next(), timeRange, output);
+        }
+        return fetchHistories(client, app.slackToken, List.copyOf(channels), timeRange, output);
+    }
 
-                messages.addAll(Optional.ofNullable(result.getMessages()).orElse(emptyList()));
+    /**
+     * Fetches channels concurrently, at most {@code concurrency} at a time.
+     * Each channel is saved to its own file in {@code outputDirectory}, named after the channel id
+     * (or its own segment store directory with {@code --segments}).
+     */
+    int fetchHistories(SlackClient client, String token, List<String> channels, TimeRange timeRange, Path outputDirectory) {
+        if (outputDirectory != null) {
+            try {
+                Files.createDirectories(outputDirectory);
+            } catch (IOException e) {
+                log.error("Error while creating output directory: {}", e.getMessage(), e);
+                return -1;
+            }
+        }
 
+        log.info("Fetching history of {} channel(s), {} at a time", channels.size(), concurrency);
+        var executor = Executors.newFixedThreadPool(Math.min(concurrency, channels.size()));
+        try {
+            var results = new LinkedHashMap<String, Future<Integer>>();
+            for (String channel : channels) {
+                var channelOutput = outputDirectory == null ? null
+                        : outputDirectory.resolve(segments == null ? channel + format.extension() : channel);
+                results.put(channel, executor.submit(() -> fetchHistory(client, token, channel, timeRange, channelOutput)));
+            }
 
-                if (result.isHasMore()) {
-                    hasMoreResults = true;
-                    nextCursor.set(result.getResponseMetadata().getNextCursor());
-                } else {
-                    hasMoreResults = false;
-                    nextCursor.set("");
+            var failed = 0;
+            for (var result : results.entrySet()) {
+                if (result.getValue().get() != 0) {
+                    log.error("Failed to fetch history of channel {}", result.getKey());
+                    failed++;
                 }
+            }
+            log.info("Fetched history of {} channel(s), {} failed", channels.size() - failed, failed);
+            return failed == 0 ? 0 : -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException e) {
+            log.error("Error while fetching history: {}", e.getMessage(), e);
+            return -1;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            } catch (IOException | SlackApiException e) {
-                log.error("Error while fetching history: {}", e.getMessage(), e);
+    int fetchHistory(SlackClient client, String token, String channel, TimeRange timeRange, Path output) {
+        if (incremental) {
+            if (output == null) {
+                log.error("Incremental mode requires `--output`");
                 return -1;
             }
-        } while (hasMoreResults);
+            return syncHistory(client, token, channel, timeRange, output);
+        }
 
-        log.info("Fetched {} messages", messages.size());
-        log.info("Filtering out messages ...");
+        var buffer = new StringWriter();
+        try (var writer = output == null ? new MessagesWriter(buffer, format)
+                : segments != null ? MessagesWriter.segmented(output, format, segments)
+                : MessagesWriter.open(output, format)) {
+            var result = sliceDays > 0
+                    ? backfillHistory(client, token, channel, timeRange, TimeUnit.DAYS.toSeconds(sliceDays), writer)
+                    : fetchHistory(client, token, channel, timeRange, writer);
+            if (result != 0) {
+                return result;
+            }
+            if (output != null) {
+                log.info("Saved {} messages to {}", writer.count(), output.toAbsolutePath());
+            }
+        } catch (IOException e) {
+            log.error("Error while saving history: {}", e.getMessage(), e);
+            return -1;
+        }
 
-        var filtered = messages.stream()
-                .filter(message -> {
-                    var string = message.getSubtype();
-                    return string == null || string.isEmpty();
-                })
-                .filter(message -> !message.isHidden())
-                .filter(message -> !message.isIntro())
-                .toList();
+        if (output == null) {
+            log.info("--- Output ---\n{}", buffer);
+        }
+        return 0;
+    }
 
-        return printOrSave(filtered, output);
+    int fetchHistory(SlackClient client, String token, String channel, TimeRange timeRange, MessagesWriter writer) throws IOException {
+        int result;
+        try (var pipeline = threadReplies(client, token, channel, writer)) {
+            result = fetchPagesAhead(client, token, channel, timeRange.from(), timeRange.to(), "",
+                    (messages, nextCursor) -> pipeline.write(filter(messages)));
+            pipeline.flush();
+        }
+        if (result == 0) {
+            log.info("{} messages from channel {} left after filtering", writer.count(), channel);
+        }
+        return result;
     }
 
-    private int printOrSave(List<Message> messages, Path output) {
+    /**
+     * Splits the time range into slices of {@code sliceSeconds} and pages through the slices in parallel, at most
+     * {@code concurrency} at a time. Each slice is buffered in a temporary file and the slices are copied
+     * to the writer newest first, so the export has the same order as one fetched page by page.
+     */
+    int backfillHistory(SlackClient client, String token, String channel, TimeRange timeRange, long sliceSeconds,
+                        MessagesWriter writer) throws IOException {
+        var slices = slices(Long.parseLong(timeRange.from()), Long.parseLong(timeRange.to()), sliceSeconds);
+        if (slices.isEmpty()) {
+            return 0;
+        }
+        log.info("Fetching history of channel {} in {} slice(s), {} at a time", channel, slices.size(), concurrency);
 
-        var gson = GsonFactory.createSnakeCase();
-        var messagesJson = gson.toJson(messages);
+        var executor = Executors.newFixedThreadPool(Math.min(concurrency, slices.size()));
+        var parts = new ArrayList<Path>();
+        try {
+            var results = new ArrayList<Future<Integer>>();
+            for (Slice slice : slices) {
+                var part = Files.createTempFile("slack-sleuth-" + channel + "-", MessagesWriter.Format.NDJSON.extension());
+                parts.add(part);
+                results.add(executor.submit(() -> {
+                    try (var partWriter = MessagesWriter.open(part, MessagesWriter.Format.NDJSON);
+                         var pipeline = threadReplies(client, token, channel, partWriter)) {
+                        var result = fetchPagesAhead(client, token, channel, slice.oldest(), slice.latest(), "",
+                                (messages, nextCursor) -> pipeline.write(filter(messages)));
+                        pipeline.flush();
+                        return result;
+                    }
+                }));
+            }
 
-        if (output == null) {
-            log.info("--- Output ---\n{}", messagesJson);
+            for (int i = 0; i < slices.size(); i++) {
+                if (results.get(i).get() != 0) {
+                    return -1;
+                }
+                try (var reader = MessagesReader.open(parts.get(i))) {
+                    writer.write(reader);
+                }
+            }
+            log.info("{} messages from channel {} left after filtering", writer.count(), channel);
             return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException e) {
+            log.error("Error while fetching history of channel {}: {}", channel, e.getMessage(), e);
+            return -1;
+        } finally {
+            executor.shutdownNow();
+            for (Path part : parts) {
+                Files.deleteIfExists(part);
+            }
         }
+    }
+
+    /**
+     * Both bounds of a slice are exclusive, like {@code oldest} and {@code latest} of conversations.history.
+     */
+    record Slice(String oldest, String latest) {
+    }
 
+    /**
+     * @return contiguous slices covering the range from {@code from} to {@code to} epoch seconds, newest first
+     */
+    static List<Slice> slices(long from, long to, long sliceSeconds) {
+        var slices = new ArrayList<Slice>();
+        for (long end = to; end > from; end -= sliceSeconds) {
+            var start = Math.max(from, end - sliceSeconds);
+            // a message posted exactly at a slice boundary belongs to the older slice
+            var latest = end == to ? Long.toString(end) : end + ".000001";
+            slices.add(new Slice(Long.toString(start), latest));
+        }
+        return slices;
+    }
+
+    /**
+     * Fetches only messages newer than the ones fetched by previous runs and appends them to the existing export.
+     * Progress is saved after every page, so an interrupted run is resumed where it stopped.
+     */
+    int syncHistory(SlackClient client, String token, String channel, TimeRange timeRange, Path output) {
+        var statePath = SyncState.pathFor(output);
         try {
-            Files.writeString(output, gson.toJson(messages));
-            log.info("Saved {} messages to {}", messages.size(), output.toRealPath());
+            var state = SyncState.load(statePath, channel);
+            var writer = openSync(state, statePath, timeRange, output);
+            try (writer; var pipeline = threadReplies(client, token, channel, writer)) {
+                // a run interrupted after its last page only needs to be finished
+                var result = state.runCursor == null ? 0 : fetchPagesAhead(client, token, channel, state.runOldest, state.runLatest, state.runCursor,
+                        (messages, nextCursor) -> {
+                            pipeline.write(filter(messages.stream()
+                                    .filter(message -> SyncState.isAfter(message.getTs(), state.latestTs))
+                                    .toList()));
+                            // the checkpoint must cover replies of the whole page
+                            pipeline.flush();
+                            writer.flush();
+                            messages.forEach(message -> state.runNewestTs = SyncState.max(state.runNewestTs, message.getTs()));
+                            state.checkpoint(nextCursor, Files.size(output));
+                            state.save(statePath);
+                        });
+                if (result != 0) {
+                    return result;
+                }
+                log.info("Appended {} messages to {}", writer.count(), output.toAbsolutePath());
+            }
+
+            state.finish();
+            state.save(statePath);
             return 0;
         } catch (IOException e) {
-            log.error("Error while saving history: {}", e.getMessage(), e);
+            log.error("Error while syncing history: {}", e.getMessage(), e);
             return -1;
         }
     }
+
+    /**
+     * Opens the export for the run of the sync, resuming an interrupted run. A new run is saved as in progress before
+     * anything is written, so the export is recovered even if the run is killed before its first checkpoint.
+     */
+    MessagesWriter openSync(SyncState state, Path statePath, TimeRange timeRange, Path output) throws IOException {
+        if (state.inProgress()) {
+            log.info("Resuming interrupted sync of channel {} from {}", state.channel, statePath);
+            return MessagesWriter.resume(output, format, state.exportSize);
+        }
+        state.start(SyncState.max(timeRange.from(), state.latestTs), timeRange.to());
+        var writer = MessagesWriter.append(output, format);
+        try {
+            // the closing bracket of a JSON export has just been cut
+            state.checkpoint("", Files.exists(output) ? Files.size(output) : 0);
+            state.save(statePath);
+        } catch (IOException e) {
+            writer.close();
+            throw e;
+        }
+        log.info("Syncing channel {} from ts {}", state.channel, state.runOldest);
+        return writer;
+    }
+
+    /**
+     * With {@code --replies} threads are fetched {@code concurrency} at a time, while next pages are being fetched.
+     */
+    private ThreadRepliesPipeline threadReplies(SlackClient client, String token, String channel, MessagesWriter writer) {
+        return new ThreadRepliesPipeline(client, token, channel, writer, replies ? concurrency : 0);
+    }
+
+    @FunctionalInterface
+    interface PageHandler {
+        /**
+         * @param nextCursor cursor of the next page or {@code null} if this is the last page
+         */
+        void accept(List<Message> messages, String nextCursor) throws IOException;
+    }
+
+    private record Page(List<Message> messages, String nextCursor) {
+    }
+
+    private static final Page LAST_PAGE = new Page(List.of(), null);
+
+    /**
+     * Fetches pages on a separate thread, up to {@code --prefetch} pages ahead of the handler, so the next page is
+     * requested as soon as the cursor is known, while the handler filters and writes the previous ones. Pages are
+     * passed to the handler in order on the calling thread. When the handler falls behind, the bounded queue of pages
+     * stops the fetcher. With {@code --prefetch 0} pages are fetched and handled one after another.
+     */
+    int fetchPagesAhead(SlackClient client, String token, String channel, String oldest, String latest, String cursor,
+                        PageHandler handler) throws IOException {
+        if (prefetch <= 0) {
+            return fetchPages(client, token, channel, oldest, latest, cursor, handler);
+        }
+        var pages = new ArrayBlockingQueue<Page>(prefetch);
+        var executor = Executors.newSingleThreadExecutor();
+        Future<Integer> fetcher = executor.submit(() -> {
+            try {
+                return fetchPages(client, token, channel, oldest, latest, cursor, (messages, nextCursor) -> {
+                    try {
+                        pages.put(new Page(messages, nextCursor));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while fetching history of channel " + channel);
+                    }
+                });
+            } finally {
+                // the handler is gone when the fetcher is interrupted
+                if (!Thread.currentThread().isInterrupted()) {
+                    pages.put(LAST_PAGE);
+                }
+            }
+        });
+        try {
+            for (var page = pages.take(); page != LAST_PAGE; page = pages.take()) {
+                handler.accept(page.messages(), page.nextCursor());
+            }
+            return fetcher.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching history of channel " + channel);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Error while fetching history of channel " + channel, e.getCause());
+        } finally {
+            fetcher.cancel(true);
+            executor.shutdownNow();
+        }
+    }
+
+    int fetchPages(SlackClient client, String token, String channel, String oldest, String latest, String cursor,
+                   PageHandler handler) throws IOException {
+        var fetched = 0L;
+        var hasMoreResults = false;
+        var nextCursor = new AtomicReference<>(cursor == null ? "" : cursor);
+
+        do {
+            ConversationsHistoryResponse result;
+            var started = System.nanoTime();
+            try {
+                result = client.call("conversations.history", methods -> methods.conversationsHistory(r -> r
+                        .token(token)
+                        .channel(channel)
+                        .oldest(oldest)
+                        .latest(latest)
+                        .limit(DEFAULT_LIMIT)
+                        .cursor(nextCursor.get())
+                ));
+            } catch (IOException | SlackApiException e) {
+                log.error("Error while fetching history of channel {}: {}", channel, e.getMessage(), e);
+                return -1;
+            }
+
+            if (!result.isOk()) {
+                log.error("Slack Web API failure. Error: '{}'", result.getError());
+                return -1;
+            }
+
+            var messages = Optional.ofNullable(result.getMessages()).orElse(emptyList());
+            fetched += messages.size();
+            Metrics.global().counter("sleuth_pages_fetched_total", "method", "conversations.history").increment();
+            Metrics.global().processed("fetch", messages.size(), System.nanoTime() - started);
+
+            if (result.isHasMore()) {
+                hasMoreResults = true;
+                nextCursor.set(result.getResponseMetadata().getNextCursor());
+            } else {
+                hasMoreResults = false;
+                nextCursor.set("");
+            }
+
+            handler.accept(messages, hasMoreResults ? nextCursor.get() : null);
+        } while (hasMoreResults);
+
+        log.info("Fetched {} messages from channel {}", fetched, channel);
+        return 0;
+    }
+
+    static List<Message> filter(List<Message> messages) {
+        var started = System.nanoTime();
+        var filtered = messages.stream()
+                .filter(message -> CompactMessage.flags(message) == 0)
+                .toList();
+        Metrics.global().processed("filter", messages.size(), System.nanoTime() - started);
+        return filtered;
+    }
 }
@@ -1,6 +1,5 @@
 package pl.codeleak.slack.sleuth;
 
-import com.slack.api.Slack;
 import com.slack.api.methods.SlackApiException;
 import com.slack.api.model.*;
 import lombok.extern.slf4j.Slf4j;
@@ -8,6 +7,8 @@ import picocli.CommandLine.*;
 import picocli.CommandLine.Option;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -16,7 +17,8 @@ import java.util.concurrent.atomic.AtomicReference;
 @Command(name = "channels")
 class ConversationsList implements Callable<Integer> {
 
-    public static final int DEFAULT_LIMIT = 2;
+    // the largest page conversations.list returns
+    public static final int DEFAULT_LIMIT = 1000;
 
     @ParentCommand
     private App app;
@@ -24,29 +26,45 @@ class ConversationsList implements Callable<Integer> {
     @Option(names = {"-s", "--search"})
     private Optional<String> searchTerm;
 
+    @Option(names = {"--channels-cache"}, defaultValue = "${sys:user.home}/.slack-sleuth/channels.json")
+    private Path channelsCache;
+
+    @Option(names = {"--channels-cache-ttl-hours"}, defaultValue = "1")
+    private int channelsCacheTtlHours;
+
     @Override
     public Integer call() {
         return fetchConversations(app.slackToken);
     }
 
     int fetchConversations(String token) {
-        var client = Slack.getInstance().methods();
+        try {
+            var catalog = ChannelCatalog.load(channelsCache, Duration.ofHours(channelsCacheTtlHours));
+            catalog.refresh(app.slackClient(), token);
+            print(searchTerm.map(catalog::search).orElseGet(catalog::channels));
+            return 0;
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    List<Conversation> listConversations(SlackClient client, String token) {
         var channels = new ArrayList<Conversation>();
         var hasMoreResults = false;
         var nextCursor = new AtomicReference<>("");
         do {
             try {
-                var result = client.conversationsList(r -> r
+                var result = client.call("conversations.list", methods -> methods.conversationsList(r -> r
                         .token(token)
                         .limit(DEFAULT_LIMIT)
                         .excludeArchived(true)
                         .types(List.of(ConversationType.PUBLIC_CHANNEL))
                         .cursor(nextCursor.get())
-                );
+                ));
 
                 if (!result.isOk()) {
-                    log.error("Slack Web API failure. Error: '{}'", result.getError());
-                    return -1;
+                    throw new RuntimeException("Slack Web API failure. Error: '" + result.getError() + "'");
                 }
 
                 channels.addAll(Optional.ofNullable(result.getChannels()).orElse(Collections.emptyList()));
@@ -60,22 +78,14 @@ class ConversationsList implements Callable<Integer> {
                 }
 
             } catch (IOException | SlackApiException e) {
-                log.error("error while fetching channels: {}", e.getMessage(), e);
-                return -1;
+                throw new RuntimeException("Error while fetching channels: " + e.getMessage(), e);
             }
         } while ((hasMoreResults));
 
-        print(channels);
-
-        return 0;
+        return channels;
     }
 
-    private void print(List<Conversation> conversations) {
-        conversations.stream()
-                .filter(conversation -> searchTerm.map(val -> conversation.getName().matches(".*" + val + ".*")).orElse(true))
-                .peek(conversation -> log.info(conversation.getName() + " (id: " + conversation.getId() + ")"))
-                .toList();
+    private void print(List<ChannelCatalog.Entry> channels) {
+        channels.forEach(channel -> log.info(channel.name + " (id: " + channel.id + ")"));
     }
-
-
 }
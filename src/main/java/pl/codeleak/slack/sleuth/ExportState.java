@@ -0,0 +1,134 @@
+package pl.codeleak.slack.sleuth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import com.slack.api.model.Message;
+
+/**
+ * What has been processed of an export, so that processing can be continued when the export grows.
+ * <p>
+ * An export that only grew, e.g. by incremental sync, keeps its size and starts with the same bytes, so only
+ * messages after the already processed ones have to be read. Anything else is treated as a rewrite.
+ * <p>
+ * Appended messages of uncompressed JSON exports are read from {@code appendOffset}, where the previous content ended,
+ * so an update costs as much as the appended part. Other exports, and states saved before the offset was recorded,
+ * are read from the start, skipping the {@code count} processed messages.
+ */
+class ExportState {
+
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    enum Change {
+        UNCHANGED, APPENDED, REWRITTEN
+    }
+
+    long size;
+    long lastModified;
+    int headSize;
+    long headChecksum;
+    long count;
+    long appendOffset;
+
+    Change changeOf(Path export) throws IOException {
+        var size = Files.size(export);
+        if (size == this.size && Files.getLastModifiedTime(export).toMillis() == lastModified) {
+            return Change.UNCHANGED;
+        }
+        if (size > this.size && headChecksum(export, headSize) == headChecksum && !ColumnarReader.isColumnar(export)) {
+            return Change.APPENDED;
+        }
+        return Change.REWRITTEN;
+    }
+
+    /**
+     * @return the export itself or, for a segment store directory, all of its segments
+     */
+    static List<Path> exports(Path input) throws IOException {
+        if (!Files.isDirectory(input)) {
+            return List.of(input);
+        }
+        return SegmentManifest.load(input).segments.stream()
+                .map(segment -> input.resolve(segment.file))
+                .toList();
+    }
+
+    /**
+     * Reads messages of the export after the already processed ones and records them as processed.
+     *
+     * @return number of messages read
+     */
+    long readNew(Path export, Consumer<? super Message> consumer) throws IOException {
+        var change = changeOf(export);
+        if (change == Change.UNCHANGED) {
+            return 0;
+        }
+        long added;
+        if (change == Change.APPENDED && count > 0 && appendOffset > 0) {
+            added = MessagesReader.forEachAppended(export, appendOffset, consumer);
+        } else {
+            var skip = change == Change.APPENDED ? count : 0;
+            var seen = new long[1];
+            MessagesReader.forEach(export, message -> {
+                if (seen[0]++ >= skip) {
+                    consumer.accept(message);
+                }
+            });
+            added = Math.max(0, seen[0] - skip);
+            if (change == Change.REWRITTEN) {
+                count = 0;
+            }
+        }
+        update(export, added);
+        return added;
+    }
+
+    /**
+     * @param added number of messages processed since the last update
+     */
+    void update(Path export, long added) throws IOException {
+        size = Files.size(export);
+        lastModified = Files.getLastModifiedTime(export).toMillis();
+        // the closing bracket of a JSON export is rewritten when it is appended to
+        headSize = (int) Math.min(MAX_HEAD_SIZE, Math.max(0, size - 1));
+        headChecksum = headChecksum(export, headSize);
+        count += added;
+        appendOffset = appendOffset(export, size);
+    }
+
+    /**
+     * @return where messages appended later will start: the end of newline-delimited JSON or the closing bracket
+     * of a JSON array, 0 if they cannot be read on their own, e.g. from a compressed or incomplete export
+     */
+    private static long appendOffset(Path export, long size) throws IOException {
+        if (size == 0 || ColumnarReader.isColumnar(export) || MessagesReader.isCompressed(export)) {
+            return 0;
+        }
+        try (var channel = FileChannel.open(export, StandardOpenOption.READ)) {
+            var position = 0L;
+            while (position < size && Character.isWhitespace(MessagesWriter.readByte(channel, position))) {
+                position++;
+            }
+            if (MessagesWriter.readByte(channel, position) != '[') {
+                return size;
+            }
+            var end = MessagesWriter.lastNonWhitespace(channel, size);
+            return MessagesWriter.readByte(channel, end) == ']' ? end : 0;
+        }
+    }
+
+    private static long headChecksum(Path export, int size) throws IOException {
+        var checksum = new CRC32();
+        try (InputStream in = Files.newInputStream(export)) {
+            checksum.update(in.readNBytes(size));
+        }
+        return checksum.getValue();
+    }
+}
@@ -0,0 +1,170 @@
+package pl.codeleak.slack.sleuth;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Messages of an export (or of all segments of a segment store) kept in memory and refreshed as the export grows,
+ * so statistics of any time window are computed without reading the export again.
+ * <p>
+ * Messages are held as {@link CompactMessage projections} in an immutable snapshot ordered by {@code ts}, replaced
+ * on every {@link #refresh()}, so queries never wait for a refresh. Statistics are cached per time window and limit
+ * until the snapshot is replaced. Refreshes read only messages appended since the previous one, see
+ * {@link ExportState}; when an export was rewritten everything is read again.
+ */
+@Slf4j
+final class LiveExports {
+
+    /**
+     * Upper bound of a time window without end.
+     */
+    static final long UNBOUNDED = Long.MAX_VALUE;
+
+    private static final int CACHE_SIZE = 64;
+
+    private record Snapshot(long version, CompactMessage[] messages, long[] micros) {
+    }
+
+    private record Query(long version, long from, long to, int limit) {
+    }
+
+    private final Path input;
+    private final Map<String, ExportState> sources = new HashMap<>();
+    private final Map<Query, MessagesStatistics> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Query, MessagesStatistics> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private volatile Snapshot snapshot = new Snapshot(0, new CompactMessage[0], new long[0]);
+
+    LiveExports(Path input) {
+        this.input = input;
+    }
+
+    /**
+     * Reads messages added to the exports since the last refresh.
+     *
+     * @return number of messages read
+     */
+    synchronized long refresh() throws IOException {
+        var exports = ExportState.exports(input);
+        var current = snapshot;
+        var rebuild = !exports.stream()
+                .map(export -> export.toAbsolutePath().normalize().toString())
+                .toList()
+                .containsAll(sources.keySet());
+        var added = new ArrayList<CompactMessage>();
+        for (Path export : exports) {
+            if (rebuild) {
+                break;
+            }
+            var key = export.toAbsolutePath().normalize().toString();
+            var source = sources.get(key);
+            var change = source == null ? ExportState.Change.REWRITTEN : source.changeOf(export);
+            if (change == ExportState.Change.UNCHANGED) {
+                continue;
+            }
+            if (change == ExportState.Change.REWRITTEN && source != null) {
+                rebuild = true;
+                break;
+            }
+            if (source == null) {
+                source = new ExportState();
+                sources.put(key, source);
+            }
+            source.readNew(export, message -> added.add(CompactMessage.of(message)));
+        }
+        if (rebuild) {
+            log.info("Exports in {} have changed, reading them again", input);
+            sources.clear();
+            added.clear();
+            for (Path export : exports) {
+                var source = new ExportState();
+                sources.put(export.toAbsolutePath().normalize().toString(), source);
+                source.readNew(export, message -> added.add(CompactMessage.of(message)));
+            }
+            snapshot = merge(current.version() + 1, new CompactMessage[0], new long[0], added);
+        } else if (!added.isEmpty()) {
+            snapshot = merge(current.version() + 1, current.messages(), current.micros(), added);
+        }
+        return added.size();
+    }
+
+    /**
+     * @return snapshot of the given messages and the added ones, all in order of {@code ts}
+     */
+    private static Snapshot merge(long version, CompactMessage[] messages, long[] micros, List<CompactMessage> added) {
+        var addedMicros = new long[added.size()];
+        var order = new Integer[added.size()];
+        for (int i = 0; i < order.length; i++) {
+            addedMicros[i] = ColumnarWriter.micros(added.get(i).ts());
+            order[i] = i;
+        }
+        // stable, so messages with the same ts keep the order of the export
+        Arrays.sort(order, Comparator.comparingLong(i -> addedMicros[i]));
+
+        var mergedMessages = new CompactMessage[messages.length + order.length];
+        var mergedMicros = new long[mergedMessages.length];
+        for (int i = 0, j = 0, k = 0; k < mergedMessages.length; k++) {
+            if (j == order.length || i < messages.length && micros[i] <= addedMicros[order[j]]) {
+                mergedMessages[k] = messages[i];
+                mergedMicros[k] = micros[i++];
+            } else {
+                mergedMessages[k] = added.get(order[j]);
+                mergedMicros[k] = addedMicros[order[j++]];
+            }
+        }
+        return new Snapshot(version, mergedMessages, mergedMicros);
+    }
+
+    int count() {
+        return snapshot.messages().length;
+    }
+
+    /**
+     * @param from epoch seconds, exclusive like in {@link MessagesAnalyzer}
+     * @param to   epoch seconds, exclusive, or {@link #UNBOUNDED}
+     */
+    MessagesStatistics statistics(long from, long to, int limit) {
+        var current = snapshot;
+        var query = new Query(current.version(), from, to, limit);
+        synchronized (cache) {
+            var cached = cache.get(query);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        var statistics = new MessagesStatistics(limit, false);
+        var micros = current.micros();
+        var toMicros = to == UNBOUNDED ? Long.MAX_VALUE : to * 1_000_000;
+        for (int i = upperBound(micros, from * 1_000_000); i < micros.length && micros[i] < toMicros; i++) {
+            statistics.accept(current.messages()[i]);
+        }
+        synchronized (cache) {
+            cache.put(query, statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * @return index of the first element greater than the value
+     */
+    private static int upperBound(long[] sorted, long value) {
+        var low = 0;
+        var high = sorted.length;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (sorted[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
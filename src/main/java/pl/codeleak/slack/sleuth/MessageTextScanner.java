@@ -0,0 +1,151 @@
+package pl.codeleak.slack.sleuth;
+
+import java.util.Arrays;
+
+/**
+ * Finds user mentions ({@code <@U...>}) and tags ({@code #tag}) in a single pass over the message text.
+ * <p>
+ * Matching follows the {@code <@(U.+?)>} and {@code (#[^C]\w+)} patterns exactly, so tags starting with {@code C}
+ * (channel references) are skipped. Tokens are recorded as offsets into reusable buffers, so scanning allocates
+ * nothing until a token is turned into a {@code String}. Each distinct token is reported once per message.
+ * <p>
+ * Instances are not thread-safe, use one scanner per thread.
+ */
+final class MessageTextScanner implements MessagesStatistics.Tokens {
+
+    private String text = "";
+    private final Tokens mentions = new Tokens();
+    private final Tokens tags = new Tokens();
+
+    void scan(String text) {
+        this.text = text == null ? "" : text;
+        mentions.clear();
+        tags.clear();
+
+        var length = this.text.length();
+        var mentionFrom = 0;
+        var tagFrom = 0;
+        for (int i = 0; i < length; i++) {
+            if (i >= mentionFrom) {
+                var end = matchMention(i);
+                if (end > 0) {
+                    // the mention is reported without the surrounding "<@" and ">"
+                    mentions.add(this.text, i + 2, end - 1);
+                    mentionFrom = end;
+                }
+            }
+            if (i >= tagFrom) {
+                var end = matchTag(i);
+                if (end > 0) {
+                    tags.add(this.text, i, end);
+                    tagFrom = end;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int mentionCount() {
+        return mentions.count;
+    }
+
+    @Override
+    public String mention(int i) {
+        return mentions.get(text, i);
+    }
+
+    @Override
+    public int tagCount() {
+        return tags.count;
+    }
+
+    @Override
+    public String tag(int i) {
+        return tags.get(text, i);
+    }
+
+    /**
+     * @return end (exclusive) of the mention starting at {@code start} or -1 if there is none
+     */
+    private int matchMention(int start) {
+        var length = text.length();
+        if (start + 3 >= length
+                || text.charAt(start) != '<'
+                || text.charAt(start + 1) != '@'
+                || text.charAt(start + 2) != 'U'
+                || isLineTerminator(text.charAt(start + 3))) {
+            return -1;
+        }
+        for (int i = start + 4; i < length; i++) {
+            var c = text.charAt(i);
+            if (c == '>') {
+                return i + 1;
+            }
+            if (isLineTerminator(c)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return end (exclusive) of the tag starting at {@code start} or -1 if there is none
+     */
+    private int matchTag(int start) {
+        var length = text.length();
+        if (start + 1 >= length || text.charAt(start) != '#') {
+            return -1;
+        }
+        var second = text.codePointAt(start + 1);
+        if (second == 'C') {
+            return -1;
+        }
+        var i = start + 1 + Character.charCount(second);
+        var wordStart = i;
+        while (i < length && isWordCharacter(text.charAt(i))) {
+            i++;
+        }
+        return i > wordStart ? i : -1;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Distinct tokens of the current text, stored as start and end offset pairs.
+     */
+    private static final class Tokens {
+
+        private int[] offsets = new int[16];
+        private int count;
+
+        void clear() {
+            count = 0;
+        }
+
+        void add(String text, int start, int end) {
+            var length = end - start;
+            for (int i = 0; i < count; i++) {
+                var otherStart = offsets[2 * i];
+                if (offsets[2 * i + 1] - otherStart == length && text.regionMatches(start, text, otherStart, length)) {
+                    return;
+                }
+            }
+            if (2 * count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[2 * count] = start;
+            offsets[2 * count + 1] = end;
+            count++;
+        }
+
+        String get(String text, int i) {
+            return text.substring(offsets[2 * i], offsets[2 * i + 1]);
+        }
+    }
+}
@@ -1,22 +1,16 @@
 package pl.codeleak.slack.sleuth;
 
 import com.slack.api.model.Message;
-import com.slack.api.model.Reaction;
-import com.slack.api.model.User;
-import com.slack.api.util.json.GsonFactory;
 import lombok.extern.slf4j.Slf4j;
 import picocli.CommandLine;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import static java.util.stream.Collectors.toMap;
 
 @Slf4j
 @CommandLine.Command(name = "analyzer")
@@ -31,6 +25,12 @@ class MessagesAnalyzer implements Callable<Integer> {
     @CommandLine.Option(names = {"-i", "--input"}, required = true)
     private Path input;
 
+    @CommandLine.Option(names = {"-s", "--start"})
+    private LocalDateTime oldest;
+
+    @CommandLine.Option(names = {"-e", "--end"})
+    private LocalDateTime latest;
+
     private int limit;
 
     @CommandLine.Option(names = {"-v", "--verbose"}, defaultValue = "false")
@@ -45,151 +45,297 @@ class MessagesAnalyzer implements Callable<Integer> {
         this.limit = limit;
     }
 
-    private final UsersInfo usersInfo = new UsersInfo();
-    private final ConcurrentHashMap<String, User> usersCache = new ConcurrentHashMap<>(0);
+    @CommandLine.Option(names = {"-a", "--approximate"}, defaultValue = "false")
+    private boolean approximate;
+
+    private double maxError;
+
+    @CommandLine.Option(names = {"--max-error"}, defaultValue = "0.0001")
+    public void setMaxError(double maxError) {
+        if (maxError <= 0 || maxError >= 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "Value for `max-error` must be greater than 0 and less than 1");
+        }
+        this.maxError = maxError;
+    }
+
+    private int parallelism;
+
+    @CommandLine.Option(names = {"-p", "--parallelism"}, defaultValue = "1")
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "Value for `parallelism` must be greater than 0");
+        }
+        this.parallelism = parallelism;
+    }
+
+    @CommandLine.Option(names = {"--users-cache"}, defaultValue = "${sys:user.home}/.slack-sleuth/users.json")
+    private Path usersCache;
+
+    @CommandLine.Option(names = {"--users-cache-ttl-hours"}, defaultValue = "24")
+    private int usersCacheTtlHours;
+
+    @CommandLine.Option(names = {"--users-cache-size"}, defaultValue = "" + UserDirectory.DEFAULT_CAPACITY)
+    private int usersCacheSize;
+
+    private UserDirectory users;
 
     @Override
     public Integer call() throws Exception {
-        var gson = GsonFactory.createSnakeCase();
-        var messagesArray = gson.fromJson(Files.readString(input), Message[].class);
-        var messages = List.of(messagesArray);
-
-        log.info("Analyzing {} message(s) extracted from {}", messages.size(), input.toAbsolutePath());
+        log.info("Analyzing message(s) extracted from {}", input.toAbsolutePath());
         log.info("Limiting statistics to [{}]", limit);
 
-        var mentionedUsers = groupByMentionedUser(messages);
+        if (approximate) {
+            log.info("Approximating statistics, counts may be overestimated by up to [{}] of all messages, mentions "
+                    + "or tags counted in their list", maxError);
+            if (verbose) {
+                log.warn("Messages are not listed in approximate mode");
+            }
+        }
+
+        var statistics = approximate
+                ? MessagesStatistics.approximate(limit, maxError)
+                : new MessagesStatistics(limit, verbose);
+        if (parallelism > 1) {
+            log.info("Analyzing on [{}] threads", parallelism);
+        }
+        var timeRange = new TimeRange.TimeRangeBuilder().from(oldest).to(latest).build();
+        if (oldest != null || latest != null) {
+            // both bounds are exclusive, like in history
+            var from = timeRange.from();
+            var to = timeRange.to();
+            statistics.restrictTo(message -> SyncState.isAfter(message.ts(), from) && SyncState.isAfter(to, message.ts()));
+        }
+        var started = System.nanoTime();
+        try (var read = Metrics.global().phase("read"); var group = Metrics.global().phase("group")) {
+            group.suspend();
+            for (Path file : inputs(timeRange)) {
+                if (ColumnarReader.isColumnar(file)) {
+                    analyzeColumnar(file, statistics, read, group);
+                } else {
+                    analyze(file, statistics, read, group);
+                }
+            }
+        }
+
+        Metrics.global().processed("analyze", statistics.count(), System.nanoTime() - started);
+        log.info("Analyzed {} message(s)", statistics.count());
+
+        List<MessagesStatistics.Group> mentionedUsers;
+        List<MessagesStatistics.Group> postingUsers;
+        List<MessagesStatistics.Group> byTags;
+        List<MessagesStatistics.Scored> mostReactedMessages;
+        try (var phase = Metrics.global().phase("top")) {
+            mentionedUsers = statistics.mentionedUsers();
+            postingUsers = statistics.postingUsers();
+            byTags = statistics.tags();
+            mostReactedMessages = statistics.popularMessages();
+        }
+        if (verbose) {
+            try (var phase = Metrics.global().phase("resolve-users")) {
+                resolveUsers(mentionedUsers, postingUsers);
+            }
+        }
+
         if (mentionedUsers.size() > 0) {
             log.info("✅ Most mentioned users: ssss");
-            mentionedUsers.entrySet()
-                    .stream().limit(limit)
-                    .forEachOrdered(entry -> {
-                        log.info("  ℹ️ User [{}] appeared in [{}] message(s)", userInfo(entry.getKey()), entry.getValue().size());
-                        if (verbose) {
-                            entry.getValue().forEach(message -> log.info("    💬 [{}]", normalize(message.getText())));
-                        }
-                    });
+            mentionedUsers.forEach(group -> {
+                log.info("  ℹ️ User [{}] appeared in [{}] message(s)", userInfo(group.key()), group.count());
+                if (verbose) {
+                    group.messages().forEach(message -> log.info("    💬 [{}]", normalize(message.text())));
+                }
+            });
         }
 
-        var postingUsers = groupByPostingUser(messages);
         if (postingUsers.size() > 0) {
             log.info("✅ Most posting users: ssss");
-            postingUsers.entrySet()
-                    .stream().limit(limit)
-                    .forEachOrdered(entry -> {
-                        log.info("  ℹ️ User [{}] posted [{}] message(s)", userInfo(entry.getKey()), entry.getValue().size());
-                        if (verbose) {
-                            entry.getValue().forEach(message -> log.info("    💬 [{}]", normalize(message.getText())));
-                        }
-                    });
+            postingUsers.forEach(group -> {
+                log.info("  ℹ️ User [{}] posted [{}] message(s)", userInfo(group.key()), group.count());
+                if (verbose) {
+                    group.messages().forEach(message -> log.info("    💬 [{}]", normalize(message.text())));
+                }
+            });
         }
 
-        var mostReactedMessages = sortByReactions(messages);
         if (mostReactedMessages.size() > 0) {
             log.info("✅ Popular messages (based on reactions, replies and reply users count):");
-            mostReactedMessages.stream()
-                    .limit(limit)
-                    .forEachOrdered(message -> log.info("  ℹ️ Reactions score [{}] for message 💬 [{}]", calculateReactionsScore(message), normalize(message.getText())));
+            mostReactedMessages.forEach(scored -> log.info("  ℹ️ Reactions score [{}] for message 💬 [{}]", scored.score(), normalize(scored.message().text())));
         }
 
-        var byTags = groupByTags(messages);
         if (byTags.size() > 0) {
-            log.info("✅ Messages by tags (replies not included):");
-            byTags.entrySet()
-                    .stream().limit(limit)
-                    .filter(entry -> entry.getValue().size() > 0)
-                    .forEachOrdered(entry -> {
-                        log.info("  ℹ️ Tag [{}] was used [{}] time(s)", entry.getKey(), entry.getValue().size());
-                        if (verbose) {
-                            entry.getValue().forEach(message -> log.info("    💬 [{}]", normalize(message.getText())));
-                        }
-                    });
+            log.info("✅ Messages by tags (replies included only if exported with --replies):");
+            byTags.forEach(group -> {
+                log.info("  ℹ️ Tag [{}] was used [{}] time(s)", group.key(), group.count());
+                if (verbose) {
+                    group.messages().forEach(message -> log.info("    💬 [{}]", normalize(message.text())));
+                }
+            });
         }
 
         return 0;
     }
 
-    Map<String, List<Message>> groupByMentionedUser(List<Message> messages) {
-        Map<String, List<Message>> result = new HashMap<>();
-        for (Message message : messages) {
-            for (String user : extractMentionedUsers(message.getText())) {
-                result.merge(user, List.of(message), (oldValue, value) ->
-                        Stream.concat(oldValue.stream(), value.stream()).toList());
-            }
+    /**
+     * @return the input file or, for a segment store, its segments that overlap the time range
+     */
+    private List<Path> inputs(TimeRange timeRange) throws IOException {
+        if (!Files.isDirectory(input)) {
+            return List.of(input);
+        }
+        if (!SegmentManifest.exists(input)) {
+            throw new IOException("Directory " + input + " is not a segment store, " + SegmentManifest.FILE_NAME + " is missing");
         }
-        return sortByMessagesCount(result);
+        var manifest = SegmentManifest.load(input);
+        var segments = manifest.overlapping(timeRange.from(), timeRange.to());
+        log.info("Analyzing {} of {} segment(s)", segments.size(), manifest.segments.size());
+        return segments.stream()
+                .map(segment -> input.resolve(segment.file))
+                .toList();
     }
 
-    Map<String, List<Message>> groupByPostingUser(List<Message> messages) {
-        Map<String, List<Message>> result = new HashMap<>();
-        for (Message message : messages) {
-            result.merge(message.getUser(), List.of(message), (oldValue, value) ->
-                    Stream.concat(oldValue.stream(), value.stream()).toList());
+    /**
+     * Messages are parsed in batches, timed as the {@code read} phase, and grouped a batch at a time, timed as
+     * {@code group}. In parallel mode batches are grouped by worker threads while the next ones are read, so
+     * {@code read} includes grouping done meanwhile, and {@code group} only the wait for batches left when reading
+     * ends. Allocations of workers are counted as long as the pool is alive; a worker that ended earlier, e.g. idle
+     * for a minute, takes its allocations with it.
+     */
+    private void analyze(Path input, MessagesStatistics statistics, Metrics.Phase read, Metrics.Phase group)
+            throws IOException {
+        try (var reader = MessagesReader.open(input)) {
+            if (parallelism > 1) {
+                try (var parallel = new ParallelStatistics(statistics, parallelism)) {
+                    reader.forEach(parallel);
+                    switchPhase(read, group);
+                    parallel.await();
+                    switchPhase(group, read);
+                }
+            } else {
+                var batch = new ArrayList<Message>(ParallelStatistics.DEFAULT_CHUNK_SIZE);
+                reader.forEach(message -> {
+                    batch.add(message);
+                    if (batch.size() == ParallelStatistics.DEFAULT_CHUNK_SIZE) {
+                        group(batch, statistics, read, group);
+                    }
+                });
+                group(batch, statistics, read, group);
+            }
         }
+    }
 
-        return sortByMessagesCount(result);
+    private static void group(List<Message> batch, MessagesStatistics statistics,
+                              Metrics.Phase read, Metrics.Phase group) {
+        switchPhase(read, group);
+        batch.forEach(statistics);
+        batch.clear();
+        switchPhase(group, read);
     }
 
-    Map<String, List<Message>> groupByTags(List<Message> messages) {
-        Map<String, List<Message>> result = new HashMap<>();
-        for (Message message : messages) {
-            extractTags(message.getText()).forEach(tag -> result.merge(tag, List.of(message), (oldValue, value) ->
-                    Stream.concat(oldValue.stream(), value.stream()).toList()));
+    private static void switchPhase(Metrics.Phase from, Metrics.Phase to) {
+        from.suspend();
+        to.resume();
+    }
+
+    /**
+     * Mentions and tags are read from the export instead of being extracted from texts again.
+     * In parallel mode each thread reads its own ranges of the export.
+     * <p>
+     * Columns are memory-mapped and decoded while messages are grouped, so the whole analysis of the export is
+     * timed as the {@code group} phase.
+     */
+    private void analyzeColumnar(Path input, MessagesStatistics statistics, Metrics.Phase read, Metrics.Phase group)
+            throws IOException {
+        switchPhase(read, group);
+        try (var reader = ColumnarReader.open(input)) {
+            if (parallelism > 1) {
+                try (var parallel = new ParallelStatistics(statistics, parallelism)) {
+                    for (int from = 0; from < reader.count(); from += ParallelStatistics.DEFAULT_CHUNK_SIZE) {
+                        var start = from;
+                        var end = Math.min(reader.count(), from + ParallelStatistics.DEFAULT_CHUNK_SIZE);
+                        parallel.submit(end - start, partial -> reader.forEachCompact(start, end, partial::accept));
+                    }
+                    parallel.await();
+                }
+            } else {
+                reader.forEachCompact(0, reader.count(), statistics::accept);
+            }
+        } finally {
+            switchPhase(group, read);
         }
-        return sortByMessagesCount(result);
     }
 
-    LinkedHashMap<String, List<Message>> sortByMessagesCount(Map<String, List<Message>> input) {
-        return input.entrySet()
-                .stream()
-                .sorted((o1, o2) -> o2.getValue().size() - o1.getValue().size())
-                .collect(toMap(Map.Entry::getKey,
-                        Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+    Map<String, List<Message>> groupByMentionedUser(List<Message> messages) {
+        return toMap(MessagesStatistics.of(messages).mentionedUsers(), messages);
+    }
+
+    Map<String, List<Message>> groupByPostingUser(List<Message> messages) {
+        return toMap(MessagesStatistics.of(messages).postingUsers(), messages);
+    }
+
+    Map<String, List<Message>> groupByTags(List<Message> messages) {
+        return toMap(MessagesStatistics.of(messages).tags(), messages);
     }
 
     List<Message> sortByReactions(List<Message> messages) {
-        return messages
+        return MessagesStatistics.of(messages).popularMessages()
                 .stream()
-                .sorted((o1, o2) -> calculateReactionsScore(o2) - calculateReactionsScore(o1))
-                .collect(Collectors.toList());
+                .map(scored -> messages.get((int) scored.sequence()))
+                .toList();
     }
 
-    int calculateReactionsScore(Message message) {
-        var reactionsCount = Optional.ofNullable(message.getReactions()).orElse(List.of())
-                .stream()
-                .mapToInt(Reaction::getCount)
-                .sum();
-        var replyCount = Optional.ofNullable(message.getReplyCount()).orElse(0);
-        var replyUsersCount = Optional.ofNullable(message.getReplyUsersCount()).orElse(0);
-        return reactionsCount + replyCount + replyUsersCount;
+    private static LinkedHashMap<String, List<Message>> toMap(List<MessagesStatistics.Group> groups, List<Message> messages) {
+        var result = new LinkedHashMap<String, List<Message>>();
+        groups.forEach(group -> result.put(group.key(), Arrays.stream(group.indexes()).mapToObj(messages::get).toList()));
+        return result;
     }
 
-    Set<String> extractMentionedUsers(String text) {
-        return extractByRegex(text, "<@(U.+?)>");
+    static int calculateReactionsScore(Message message) {
+        return CompactMessage.of(message).reactionsScore();
     }
 
-    Set<String> extractTags(String text) {
-        return extractByRegex(text, "(#[^C]\\w+)");
+    static Set<String> extractMentionedUsers(String text) {
+        var scanner = new MessageTextScanner();
+        scanner.scan(text);
+        var results = new LinkedHashSet<String>();
+        for (int i = 0; i < scanner.mentionCount(); i++) {
+            results.add(scanner.mention(i));
+        }
+        return results;
     }
 
-    private Set<String> extractByRegex(String text, String regex) {
-        var results = new HashSet<String>();
-        var pattern = Pattern.compile(regex);
-        var matcher = pattern.matcher(text);
-        while (matcher.find()) {
-            results.add(matcher.group(1));
+    static Set<String> extractTags(String text) {
+        var scanner = new MessageTextScanner();
+        scanner.scan(text);
+        var results = new LinkedHashSet<String>();
+        for (int i = 0; i < scanner.tagCount(); i++) {
+            results.add(scanner.tag(i));
         }
         return results;
     }
 
+    /**
+     * Fetches all listed users that are not in the users cache in one batch, before any of them is printed.
+     */
+    @SafeVarargs
+    private void resolveUsers(List<MessagesStatistics.Group>... groups) throws IOException {
+        users = UserDirectory.load(usersCache, Duration.ofHours(usersCacheTtlHours), usersCacheSize);
+        var ids = Arrays.stream(groups)
+                .flatMap(List::stream)
+                .map(MessagesStatistics.Group::key)
+                .toList();
+        if (users.resolve(app.slackClient(), app.slackToken, ids) > 0) {
+            users.save();
+        }
+    }
+
     String userInfo(String user) {
         if (!verbose) {
             return user;
         }
-        var userInfo = usersCache.computeIfAbsent(user, key -> usersInfo.fetchUserInfo(app.slackToken, key));
-        if (userInfo != null) {
-            return userInfo.getName() + " (" + userInfo.getRealName() + ")";
-        }
-        return user + " (!Not Found!)";
+        return users.get(user)
+                .map(userInfo -> userInfo.name + " (" + userInfo.realName + ")")
+                .orElse(user + " (!Not Found!)");
     }
 
     String normalize(String text) {
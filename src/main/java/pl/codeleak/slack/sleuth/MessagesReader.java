@@ -0,0 +1,174 @@
+package pl.codeleak.slack.sleuth;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.slack.api.model.Message;
+import com.slack.api.util.json.GsonFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads messages from an export one at a time, so the export never has to be loaded into memory as a whole.
+ * <p>
+ * Both formats produced by {@link MessagesWriter} are supported: a JSON array and newline-delimited JSON.
+ * The format is detected from the first token of the input.
+ * <p>
+ * Files compressed with gzip or zlib (deflate) are detected by their first bytes and decompressed while being read,
+ * whatever their name.
+ */
+final class MessagesReader implements Closeable {
+
+    private final Gson gson = GsonFactory.createSnakeCase();
+    private final JsonReader jsonReader;
+
+    MessagesReader(Reader reader) {
+        this.jsonReader = new JsonReader(reader);
+        // Lenient mode accepts multiple top-level values, which is what newline-delimited JSON is
+        this.jsonReader.setLenient(true);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static MessagesReader open(Path input) throws IOException {
+        var in = new BufferedInputStream(Files.newInputStream(input), BUFFER_SIZE);
+        try {
+            return new MessagesReader(new BufferedReader(new InputStreamReader(decompressed(in), StandardCharsets.UTF_8), BUFFER_SIZE));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static InputStream decompressed(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        var first = in.read();
+        var second = in.read();
+        in.reset();
+        if (isGzip(first, second)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        if (isZlib(first, second)) {
+            return new InflaterInputStream(in);
+        }
+        return in;
+    }
+
+    private static boolean isGzip(int first, int second) {
+        return first == 0x1F && second == 0x8B;
+    }
+
+    // zlib header: deflate method and a checksum making the first two bytes a multiple of 31
+    private static boolean isZlib(int first, int second) {
+        return first >= 0 && second >= 0 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+    }
+
+    /**
+     * @return {@code true} if the file starts like gzip or zlib compressed data
+     */
+    static boolean isCompressed(Path input) throws IOException {
+        try (var in = Files.newInputStream(input)) {
+            var first = in.read();
+            var second = in.read();
+            return isGzip(first, second) || isZlib(first, second);
+        }
+    }
+
+    /**
+     * Reads only messages appended to an uncompressed export after {@code offset}, the end of what was read before:
+     * the previous size of newline-delimited JSON, or the offset of the previous closing bracket of a JSON array.
+     * Nothing before the offset is read.
+     *
+     * @return number of messages read
+     */
+    static long forEachAppended(Path export, long offset, Consumer<? super Message> action) throws IOException {
+        try (var channel = FileChannel.open(export, StandardOpenOption.READ)) {
+            channel.position(offset);
+            var in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+            int first;
+            do {
+                in.mark(1);
+                first = in.read();
+            } while (first >= 0 && Character.isWhitespace(first));
+            if (first < 0 || first == ']') {
+                return 0;
+            }
+            InputStream appended = in;
+            if (first == ',') {
+                // messages appended to a JSON array follow a separator, turned into an array of their own
+                appended = new SequenceInputStream(new ByteArrayInputStream(new byte[]{'['}), in);
+            } else {
+                in.reset();
+            }
+            var count = new long[1];
+            var text = new BufferedReader(new InputStreamReader(appended, StandardCharsets.UTF_8), BUFFER_SIZE);
+            try (var reader = new MessagesReader(text)) {
+                reader.forEach(message -> {
+                    count[0]++;
+                    action.accept(message);
+                });
+            }
+            return count[0];
+        }
+    }
+
+    /**
+     * Reads messages of an export in any format, including {@link ColumnarReader columnar} exports.
+     */
+    static void forEach(Path export, Consumer<? super Message> action) throws IOException {
+        if (ColumnarReader.isColumnar(export)) {
+            try (var reader = ColumnarReader.open(export)) {
+                reader.forEach(0, reader.count(), (message, tokens) -> action.accept(message));
+            }
+        } else {
+            try (var reader = open(export)) {
+                reader.forEach(action);
+            }
+        }
+    }
+
+    void forEach(Consumer<? super Message> action) throws IOException {
+        JsonToken first;
+        try {
+            first = jsonReader.peek();
+        } catch (EOFException e) {
+            // empty input
+            return;
+        }
+
+        if (first == JsonToken.BEGIN_ARRAY) {
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                action.accept(gson.fromJson(jsonReader, Message.class));
+            }
+            jsonReader.endArray();
+        } else {
+            while (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                action.accept(gson.fromJson(jsonReader, Message.class));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        jsonReader.close();
+    }
+}
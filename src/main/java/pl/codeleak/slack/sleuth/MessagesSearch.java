@@ -0,0 +1,78 @@
+package pl.codeleak.slack.sleuth;
+
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+@Slf4j
+@CommandLine.Command(name = "search")
+class MessagesSearch implements Callable<Integer> {
+
+    @CommandLine.Option(names = {"-i", "--input"}, required = true)
+    private Path input;
+
+    @CommandLine.Option(names = {"--index"})
+    private Path index;
+
+    @CommandLine.Option(names = {"-q", "--query"})
+    private String query;
+
+    @CommandLine.Option(names = {"-u", "--user"})
+    private String user;
+
+    @CommandLine.Option(names = {"--tag"})
+    private String tag;
+
+    @CommandLine.Option(names = {"-s", "--start"})
+    private LocalDateTime oldest;
+
+    @CommandLine.Option(names = {"-e", "--end"})
+    private LocalDateTime latest;
+
+    @CommandLine.Option(names = {"-l", "--limit"}, defaultValue = "20")
+    private int limit;
+
+    @Override
+    public Integer call() {
+        var indexDirectory = index != null ? index : input.resolveSibling(input.getFileName() + ".index");
+        try (var searchIndex = SearchIndex.open(indexDirectory)) {
+            var indexed = 0L;
+            for (Path export : ExportState.exports(input)) {
+                indexed += searchIndex.update(export);
+            }
+            if (indexed > 0) {
+                log.info("Indexed {} new message(s) in {}", indexed, indexDirectory.toAbsolutePath());
+            }
+
+            var timeRange = new TimeRange.TimeRangeBuilder().from(oldest).to(latest).build();
+            var started = System.nanoTime();
+            var messages = searchIndex.search(new SearchIndex.Query(terms(), timeRange.from(), timeRange.to()), limit);
+            log.info("Found {} message(s) in {} ms", messages.size(), (System.nanoTime() - started) / 1_000_000);
+            messages.forEach(message -> log.info("  💬 [{}] [{}] [{}]", message.getTs(), message.getUser(), message.getText()));
+            return 0;
+        } catch (Exception e) {
+            log.error("Error while searching messages: {}", e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    /**
+     * @return words of the query and the user and tag filters as index terms
+     */
+    private List<String> terms() {
+        var terms = new ArrayList<String>();
+        SearchIndex.words(query, terms::add);
+        if (user != null) {
+            terms.add("user:" + user);
+        }
+        if (tag != null) {
+            terms.add(SearchIndex.tagTerm(tag));
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,311 @@
+package pl.codeleak.slack.sleuth;
+
+import com.google.gson.Gson;
+import com.slack.api.util.json.GsonFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Serves analyzer queries over a local HTTP endpoint, with exports, users and channels kept in memory.
+ * <p>
+ * All endpoints answer {@code GET} requests with JSON. Statistics endpoints accept {@code limit} (default 3) and
+ * an optional time window, {@code start} and {@code end} like {@code -s} and {@code -e} of the analyzer:
+ * <ul>
+ *     <li>{@code /posters} - most posting users</li>
+ *     <li>{@code /mentions} - most mentioned users</li>
+ *     <li>{@code /tags} - most used tags</li>
+ *     <li>{@code /popular} - messages with the highest reactions score</li>
+ *     <li>{@code /channels} - public channels</li>
+ *     <li>{@code /metrics} - {@link Metrics} in the Prometheus text format</li>
+ * </ul>
+ * Exports are refreshed in the background every {@code --refresh-seconds}, reading only new messages.
+ */
+@Slf4j
+@CommandLine.Command(name = "serve")
+class MessagesServer implements Callable<Integer> {
+
+    private static final Duration CHANNELS_TTL = Duration.ofMinutes(10);
+    private static final Gson GSON = GsonFactory.createSnakeCase();
+
+    @CommandLine.Spec
+    CommandLine.Model.CommandSpec spec;
+
+    @CommandLine.ParentCommand
+    private App app;
+
+    @CommandLine.Option(names = {"-i", "--input"}, required = true)
+    private Path input;
+
+    @CommandLine.Option(names = {"--port"}, defaultValue = "8080")
+    private int port;
+
+    private int refreshSeconds;
+
+    @CommandLine.Option(names = {"--refresh-seconds"}, defaultValue = "60")
+    public void setRefreshSeconds(int refreshSeconds) {
+        if (refreshSeconds < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                    "Value for `refresh-seconds` must be greater than 0");
+        }
+        this.refreshSeconds = refreshSeconds;
+    }
+
+    @CommandLine.Option(names = {"--users-cache"}, defaultValue = "${sys:user.home}/.slack-sleuth/users.json")
+    private Path usersCache;
+
+    @CommandLine.Option(names = {"--users-cache-ttl-hours"}, defaultValue = "24")
+    private int usersCacheTtlHours;
+
+    @CommandLine.Option(names = {"--users-cache-size"}, defaultValue = "" + UserDirectory.DEFAULT_CAPACITY)
+    private int usersCacheSize;
+
+    @CommandLine.Option(names = {"--channels-cache"}, defaultValue = "${sys:user.home}/.slack-sleuth/channels.json")
+    private Path channelsCache;
+
+    static final class UserCount {
+        String id;
+        String name;
+        String realName;
+        int count;
+    }
+
+    static final class TagCount {
+        String tag;
+        int count;
+    }
+
+    static final class PopularMessage {
+        String ts;
+        String user;
+        String text;
+        int score;
+    }
+
+    static final class Channel {
+        String id;
+        String name;
+    }
+
+    private LiveExports exports;
+    private UserDirectory users;
+    private boolean usersChanged;
+    private ChannelCatalog catalog;
+    private boolean channelsRequested;
+
+    @Override
+    public Integer call() {
+        HttpServer server;
+        try {
+            exports = new LiveExports(input);
+            exports.refresh();
+            log.info("Loaded {} message(s) from {}", exports.count(), input.toAbsolutePath());
+            users = UserDirectory.load(usersCache, Duration.ofHours(usersCacheTtlHours), usersCacheSize);
+            catalog = ChannelCatalog.load(channelsCache, CHANNELS_TTL);
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            log.error("Error while starting server: {}", e.getMessage(), e);
+            return -1;
+        }
+
+        server.createContext("/posters", exchange -> respond(exchange, query -> users(query, true)));
+        server.createContext("/mentions", exchange -> respond(exchange, query -> users(query, false)));
+        server.createContext("/tags", exchange -> respond(exchange, this::tags));
+        server.createContext("/popular", exchange -> respond(exchange, this::popular));
+        server.createContext("/channels", exchange -> respond(exchange, query -> channels()));
+        server.createContext("/metrics", exchange -> send(exchange, 200, "text/plain; version=0.0.4",
+                Metrics.global().report(Metrics.Format.PROMETHEUS)));
+        server.setExecutor(Executors.newFixedThreadPool(4));
+
+        var refresher = Executors.newSingleThreadScheduledExecutor();
+        refresher.scheduleWithFixedDelay(this::refresh, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+
+        var stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            refresher.shutdownNow();
+            saveUsers();
+            stopped.countDown();
+        }));
+        server.start();
+        log.info("Serving {} on http://{}:{}/", input.toAbsolutePath(), server.getAddress().getHostString(), port);
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    private void refresh() {
+        try {
+            var added = exports.refresh();
+            if (added > 0) {
+                log.info("Read {} new message(s), {} in total", added, exports.count());
+            }
+            saveUsers();
+            synchronized (this) {
+                if (channelsRequested) {
+                    catalog.refresh(app.slackClient(), app.slackToken);
+                }
+            }
+        } catch (Exception e) {
+            // the next refresh retries, failing it would stop the refreshes
+            log.warn("Error while refreshing: {}", e.getMessage(), e);
+        }
+    }
+
+    private List<UserCount> users(Map<String, String> query, boolean posting) {
+        var statistics = statistics(query);
+        var groups = posting ? statistics.postingUsers() : statistics.mentionedUsers();
+        synchronized (users) {
+            if (users.resolve(app.slackClient(), app.slackToken, groups.stream().map(MessagesStatistics.Group::key).toList()) > 0) {
+                usersChanged = true;
+            }
+            return groups.stream().map(group -> {
+                var count = new UserCount();
+                count.id = group.key();
+                count.count = group.count();
+                users.get(group.key()).ifPresent(user -> {
+                    count.name = user.name;
+                    count.realName = user.realName;
+                });
+                return count;
+            }).toList();
+        }
+    }
+
+    private List<TagCount> tags(Map<String, String> query) {
+        return statistics(query).tags().stream().map(group -> {
+            var count = new TagCount();
+            count.tag = group.key();
+            count.count = group.count();
+            return count;
+        }).toList();
+    }
+
+    private List<PopularMessage> popular(Map<String, String> query) {
+        return statistics(query).popularMessages().stream().map(scored -> {
+            var message = new PopularMessage();
+            message.ts = scored.message().ts();
+            message.user = scored.message().user();
+            message.text = scored.message().text();
+            message.score = scored.score();
+            return message;
+        }).toList();
+    }
+
+    private synchronized List<Channel> channels() {
+        channelsRequested = true;
+        try {
+            catalog.refresh(app.slackClient(), app.slackToken);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return catalog.channels().stream().map(entry -> {
+            var channel = new Channel();
+            channel.id = entry.id;
+            channel.name = entry.name;
+            return channel;
+        }).toList();
+    }
+
+    private void saveUsers() {
+        synchronized (users) {
+            if (!usersChanged) {
+                return;
+            }
+            try {
+                users.save();
+                usersChanged = false;
+            } catch (IOException e) {
+                log.warn("Error while saving users cache: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private MessagesStatistics statistics(Map<String, String> query) {
+        var limit = Integer.parseInt(query.getOrDefault("limit", "3"));
+        if (limit < 1 || limit > 100) {
+            throw new IllegalArgumentException("Value for `limit` must be in range of 1 to 100");
+        }
+        var timeRange = new TimeRange.TimeRangeBuilder()
+                .from(dateTime(query.get("start")))
+                .to(dateTime(query.get("end")))
+                .build();
+        // without `end` the window stays open, so the cached result is not tied to the current second
+        var to = query.get("end") == null ? LiveExports.UNBOUNDED : Long.parseLong(timeRange.to());
+        return exports.statistics(Long.parseLong(timeRange.from()), to, limit);
+    }
+
+    private static LocalDateTime dateTime(String value) {
+        try {
+            return value == null ? null : LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date and time '" + value + "', expected e.g. 2022-10-01T00:00");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, Function<Map<String, String>, Object> handler) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            send(exchange, 405, "application/json", error("Only GET is supported"));
+            return;
+        }
+        try {
+            var body = GSON.toJson(handler.apply(query(exchange)));
+            send(exchange, 200, "application/json", body);
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, "application/json", error(e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error while handling {}: {}", exchange.getRequestURI(), e.getMessage(), e);
+            send(exchange, 500, "application/json", error(e.getMessage()));
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        var query = new HashMap<String, String>();
+        var raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String parameter : raw.split("&")) {
+            var separator = parameter.indexOf('=');
+            if (separator > 0) {
+                query.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static String error(String message) {
+        return GSON.toJson(Map.of("error", String.valueOf(message)));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
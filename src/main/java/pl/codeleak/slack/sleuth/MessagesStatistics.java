@@ -0,0 +1,342 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Statistics updated with one message at a time, so messages can be streamed straight from the input.
+ * All groupings are updated in a single pass over the messages.
+ * <p>
+ * Messages themselves are retained only when {@code retainMessages} is set (they are printed in verbose mode),
+ * otherwise only counters and the most popular messages are kept. Groups refer to retained messages by index.
+ * Messages are kept as {@link CompactMessage projections}, never as whole Slack messages.
+ * <p>
+ * In approximate mode groupings are backed by {@link SpaceSaving} sketches, so memory stays bounded
+ * regardless of the number of distinct users and tags.
+ * <p>
+ * Statistics of consecutive parts of the input can be computed independently with {@link #partial(long)}
+ * and combined with {@link #merge(MessagesStatistics)}. Merged in input order, they are equal to statistics
+ * computed in one go (approximate counts stay within the same error bound).
+ */
+final class MessagesStatistics implements Consumer<Message> {
+
+    private static final int[] NO_INDEXES = new int[0];
+
+    private final int limit;
+    private final boolean retainMessages;
+    private final double maxError;
+
+    private final Grouping mentionedUsers;
+    private final Grouping postingUsers;
+    private final Grouping tags;
+    private final TopK<Scored> popularMessages;
+    private final List<CompactMessage> messages = new ArrayList<>();
+    private final MessageTextScanner scanner = new MessageTextScanner();
+
+    private final long firstSequence;
+    private long count;
+    // messages passed in, including ones skipped by the filter, so sequences do not depend on the filter
+    private long seen;
+    private Predicate<CompactMessage> filter = message -> true;
+
+    MessagesStatistics(int limit, boolean retainMessages) {
+        this(limit, retainMessages, 0, 0);
+    }
+
+    private MessagesStatistics(int limit, boolean retainMessages, double maxError, long firstSequence) {
+        this.limit = limit;
+        this.retainMessages = retainMessages;
+        this.maxError = maxError;
+        this.firstSequence = firstSequence;
+        this.mentionedUsers = newGrouping();
+        this.postingUsers = newGrouping();
+        this.tags = newGrouping();
+        this.popularMessages = new TopK<>(limit, Scored.MOST_POPULAR_FIRST);
+    }
+
+    private Grouping newGrouping() {
+        return maxError > 0 ? new ApproximateGrouping(SpaceSaving.withError(maxError)) : new ExactGrouping();
+    }
+
+    static MessagesStatistics of(List<Message> messages) {
+        var statistics = new MessagesStatistics(Integer.MAX_VALUE, true);
+        messages.forEach(statistics);
+        return statistics;
+    }
+
+    /**
+     * @param error maximum overestimation of any count, as a fraction of the total of its list: analyzed messages for
+     *              posting users, mentions for mentioned users and tags for tags
+     */
+    static MessagesStatistics approximate(int limit, double error) {
+        return new MessagesStatistics(limit, false, error, 0);
+    }
+
+    /**
+     * @param firstSequence position in the whole input of the first message passed to the returned statistics
+     * @return empty statistics configured like this one, to be merged into it later
+     */
+    MessagesStatistics partial(long firstSequence) {
+        var partial = new MessagesStatistics(limit, retainMessages, maxError, firstSequence);
+        partial.filter = filter;
+        return partial;
+    }
+
+    /**
+     * Skips messages not matching the filter, e.g. outside the analyzed time range. Skipped messages are not counted.
+     */
+    void restrictTo(Predicate<CompactMessage> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Adds statistics of messages that follow all messages seen by this instance.
+     */
+    void merge(MessagesStatistics other) {
+        var offset = messages.size();
+        messages.addAll(other.messages);
+        mentionedUsers.merge(other.mentionedUsers, offset);
+        postingUsers.merge(other.postingUsers, offset);
+        tags.merge(other.tags, offset);
+        other.popularMessages.toList().forEach(popularMessages::offer);
+        count += other.count;
+        seen += other.seen;
+    }
+
+    @Override
+    public void accept(Message message) {
+        accept(CompactMessage.of(message));
+    }
+
+    void accept(CompactMessage message) {
+        var sequence = firstSequence + seen++;
+        if (!filter.test(message)) {
+            return;
+        }
+        scanner.scan(message.text());
+        add(message, scanner, sequence);
+    }
+
+    /**
+     * Adds a message whose mentions and tags are already known, e.g. read from a {@link ColumnarReader columnar export}.
+     */
+    void accept(CompactMessage message, Tokens tokens) {
+        var sequence = firstSequence + seen++;
+        if (filter.test(message)) {
+            add(message, tokens, sequence);
+        }
+    }
+
+    private void add(CompactMessage message, Tokens tokens, long sequence) {
+        count++;
+        var index = -1;
+        if (retainMessages) {
+            index = messages.size();
+            messages.add(message);
+        }
+
+        for (int i = 0; i < tokens.mentionCount(); i++) {
+            mentionedUsers.add(tokens.mention(i), index);
+        }
+        postingUsers.add(message.user(), index);
+        for (int i = 0; i < tokens.tagCount(); i++) {
+            tags.add(tokens.tag(i), index);
+        }
+
+        popularMessages.offer(new Scored(message, message.reactionsScore(), sequence));
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * @return number of messages passed to the statistics, including ones skipped by the filter
+     */
+    long seen() {
+        return seen;
+    }
+
+    List<Group> mentionedUsers() {
+        return mentionedUsers.top(limit);
+    }
+
+    List<Group> postingUsers() {
+        return postingUsers.top(limit);
+    }
+
+    List<Group> tags() {
+        return tags.top(limit);
+    }
+
+    List<Scored> popularMessages() {
+        return popularMessages.toList();
+    }
+
+    /**
+     * Distinct user mentions and tags of a single message.
+     */
+    interface Tokens {
+
+        int mentionCount();
+
+        String mention(int i);
+
+        int tagCount();
+
+        String tag(int i);
+    }
+
+    final class Group {
+
+        private final String key;
+        private int[] indexes = NO_INDEXES;
+        private int count;
+
+        private Group(String key) {
+            this.key = key;
+        }
+
+        private Group(String key, int count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        private void addAll(Group other, int offset) {
+            if (retainMessages) {
+                if (count + other.count > indexes.length) {
+                    indexes = Arrays.copyOf(indexes, count + other.count);
+                }
+                for (int i = 0; i < other.count; i++) {
+                    indexes[count + i] = other.indexes[i] + offset;
+                }
+            }
+            count += other.count;
+        }
+
+        private void add(int index) {
+            if (index >= 0) {
+                if (count == indexes.length) {
+                    indexes = Arrays.copyOf(indexes, Math.max(4, count * 2));
+                }
+                indexes[count] = index;
+            }
+            count++;
+        }
+
+        String key() {
+            return key;
+        }
+
+        /**
+         * @return positions of messages of this group among retained messages, i.e. in the input, empty if messages
+         * are not retained
+         */
+        int[] indexes() {
+            return retainMessages ? Arrays.copyOf(indexes, count) : NO_INDEXES;
+        }
+
+        int count() {
+            return count;
+        }
+
+        /**
+         * @return messages of this group in input order, empty if messages are not retained
+         */
+        List<CompactMessage> messages() {
+            if (!retainMessages) {
+                return List.of();
+            }
+            return new AbstractList<>() {
+                @Override
+                public CompactMessage get(int i) {
+                    return MessagesStatistics.this.messages.get(indexes[Objects.checkIndex(i, count)]);
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+    }
+
+    private static final Comparator<Group> MOST_FREQUENT_FIRST = Comparator.comparingInt(Group::count)
+            .reversed()
+            .thenComparing(Group::key, Comparator.nullsLast(Comparator.naturalOrder()));
+
+    private interface Grouping {
+
+        void add(String key, int index);
+
+        /**
+         * @param offset to be added to message indexes of the other grouping
+         */
+        void merge(Grouping other, int offset);
+
+        List<Group> top(int limit);
+    }
+
+    private final class ExactGrouping implements Grouping {
+
+        private final Map<String, Group> groups = new HashMap<>();
+
+        @Override
+        public void add(String key, int index) {
+            groups.computeIfAbsent(key, Group::new).add(index);
+        }
+
+        @Override
+        public void merge(Grouping other, int offset) {
+            ((ExactGrouping) other).groups.forEach((key, group) ->
+                    groups.computeIfAbsent(key, Group::new).addAll(group, offset));
+        }
+
+        @Override
+        public List<Group> top(int limit) {
+            var top = new TopK<>(limit, MOST_FREQUENT_FIRST);
+            groups.values().forEach(top::offer);
+            return top.toList();
+        }
+    }
+
+    private final class ApproximateGrouping implements Grouping {
+
+        private final SpaceSaving sketch;
+
+        private ApproximateGrouping(SpaceSaving sketch) {
+            this.sketch = sketch;
+        }
+
+        @Override
+        public void add(String key, int index) {
+            sketch.add(key);
+        }
+
+        @Override
+        public void merge(Grouping other, int offset) {
+            sketch.merge(((ApproximateGrouping) other).sketch);
+        }
+
+        @Override
+        public List<Group> top(int limit) {
+            return sketch.top(limit).stream()
+                    .map(estimate -> new Group(estimate.key(), (int) estimate.count()))
+                    .toList();
+        }
+    }
+
+    /**
+     * @param sequence position of the message in the whole input
+     */
+    record Scored(CompactMessage message, int score, long sequence) {
+
+        // Ties are broken by position in the input, earlier messages rank higher
+        static final Comparator<Scored> MOST_POPULAR_FIRST = Comparator.comparingInt(Scored::score)
+                .reversed()
+                .thenComparingLong(Scored::sequence);
+    }
+}
@@ -0,0 +1,63 @@
+package pl.codeleak.slack.sleuth;
+
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+@Slf4j
+@CommandLine.Command(name = "trends")
+class MessagesTrends implements Callable<Integer> {
+
+    @CommandLine.Option(names = {"-i", "--input"}, required = true)
+    private Path input;
+
+    @CommandLine.Option(names = {"--rollups"})
+    private Path rollups;
+
+    @CommandLine.Option(names = {"-m", "--metric"}, defaultValue = "TAGS")
+    private Rollups.Metric metric;
+
+    @CommandLine.Option(names = {"-g", "--granularity"}, defaultValue = "WEEK")
+    private Rollups.Granularity granularity;
+
+    @CommandLine.Option(names = {"-s", "--start"})
+    private LocalDateTime oldest;
+
+    @CommandLine.Option(names = {"-e", "--end"})
+    private LocalDateTime latest;
+
+    @CommandLine.Option(names = {"-l", "--limit"}, defaultValue = "5")
+    private int limit;
+
+    @Override
+    public Integer call() {
+        var rollupsFile = rollups != null ? rollups : input.resolveSibling(input.getFileName() + ".rollups");
+        try {
+            var trends = Rollups.open(rollupsFile);
+            var added = 0L;
+            for (Path export : ExportState.exports(input)) {
+                added += trends.update(export);
+            }
+            if (added > 0) {
+                log.info("Aggregated {} new message(s) in {}", added, rollupsFile.toAbsolutePath());
+            }
+
+            var timeRange = new TimeRange.TimeRangeBuilder().from(oldest).to(latest).build();
+            var started = System.nanoTime();
+            var periods = trends.top(metric, granularity, Long.parseLong(timeRange.from()), Long.parseLong(timeRange.to()), limit);
+            log.info("Top {} by {} in {} period(s), computed in {} ms", metric, granularity, periods.size(),
+                    (System.nanoTime() - started) / 1_000_000);
+            periods.forEach(period -> log.info("  📈 [{}] {}", period.start(), period.top().stream()
+                    .map(count -> count.key() + " (" + count.count() + ")")
+                    .collect(Collectors.joining(", "))));
+            return 0;
+        } catch (Exception e) {
+            log.error("Error while computing trends: {}", e.getMessage(), e);
+            return -1;
+        }
+    }
+}
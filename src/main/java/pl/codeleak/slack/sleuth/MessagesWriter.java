@@ -0,0 +1,299 @@
+package pl.codeleak.slack.sleuth;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.slack.api.model.Message;
+import com.slack.api.util.json.GsonFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams messages to the underlying writer as they arrive, so an export never has to be held in memory as a whole.
+ * <p>
+ * {@link Format#JSON} produces the same snake-case JSON array as serializing the whole list at once,
+ * {@link Format#NDJSON} writes one message per line. {@link Format#COLUMNAR} is a compact binary format written by
+ * {@link ColumnarWriter}, which keeps only what the analyzer needs.
+ * <p>
+ * An export can also be split by time into a {@link SegmentWriter segment store}, with one file per day or week.
+ * <p>
+ * Existing JSON and NDJSON exports can be appended to. The closing bracket of a JSON array is then removed and
+ * written again on close.
+ * <p>
+ * JSON and NDJSON exports to a file ending with {@code .gz} are gzip-compressed as they are written.
+ * {@link MessagesReader} decompresses them on the fly. Compressed exports cannot be appended to.
+ */
+final class MessagesWriter implements Closeable {
+
+    static final String GZIP_EXTENSION = ".gz";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    enum Format {
+        JSON(".json"), NDJSON(".ndjson"), COLUMNAR(".sleuth");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        String extension() {
+            return extension;
+        }
+    }
+
+    private final Gson gson = GsonFactory.createSnakeCase();
+    private final Writer writer;
+    private final Format format;
+    private final JsonWriter jsonWriter;
+    private final ColumnarWriter columnarWriter;
+    private final SegmentWriter segmentWriter;
+    // set when appending to an open JSON array, elements are then separated manually
+    private final boolean appending;
+    private boolean separate;
+    private long count;
+
+    MessagesWriter(Writer writer, Format format) throws IOException {
+        if (format == Format.COLUMNAR) {
+            throw new IllegalArgumentException("Columnar format can only be written to a file");
+        }
+        this.writer = writer;
+        this.format = format;
+        this.appending = false;
+        this.columnarWriter = null;
+        this.segmentWriter = null;
+        if (format == Format.JSON) {
+            this.jsonWriter = gson.newJsonWriter(writer);
+            this.jsonWriter.beginArray();
+        } else {
+            this.jsonWriter = null;
+        }
+    }
+
+    private MessagesWriter(Writer writer, boolean separate) {
+        this.writer = writer;
+        this.format = Format.JSON;
+        this.jsonWriter = null;
+        this.columnarWriter = null;
+        this.segmentWriter = null;
+        this.appending = true;
+        this.separate = separate;
+    }
+
+    private MessagesWriter(ColumnarWriter columnarWriter) {
+        this.writer = null;
+        this.format = Format.COLUMNAR;
+        this.jsonWriter = null;
+        this.columnarWriter = columnarWriter;
+        this.segmentWriter = null;
+        this.appending = false;
+    }
+
+    private MessagesWriter(SegmentWriter segmentWriter, Format format) {
+        this.writer = null;
+        this.format = format;
+        this.jsonWriter = null;
+        this.columnarWriter = null;
+        this.segmentWriter = segmentWriter;
+        this.appending = false;
+    }
+
+    static MessagesWriter open(Path output, Format format) throws IOException {
+        if (format == Format.COLUMNAR) {
+            if (isCompressed(output)) {
+                throw new IOException("Columnar exports cannot be compressed");
+            }
+            return new MessagesWriter(ColumnarWriter.open(output));
+        }
+        if (isCompressed(output)) {
+            var compressed = new GZIPOutputStream(Files.newOutputStream(output), GZIP_BUFFER_SIZE) {
+                {
+                    // repetitive JSON compresses about 10x even at the fastest level, which costs half the time
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+            return new MessagesWriter(new BufferedWriter(new OutputStreamWriter(compressed, StandardCharsets.UTF_8)), format);
+        }
+        return new MessagesWriter(Files.newBufferedWriter(output), format);
+    }
+
+    static boolean isCompressed(Path output) {
+        return output.getFileName().toString().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * Creates a segment store in {@code directory}, each segment is written in the given format.
+     */
+    static MessagesWriter segmented(Path directory, Format format, SegmentWriter.Partitioning partitioning) throws IOException {
+        return new MessagesWriter(SegmentWriter.open(directory, format, partitioning), format);
+    }
+
+    /**
+     * Opens a complete export for appending or creates a new one.
+     */
+    static MessagesWriter append(Path output, Format format) throws IOException {
+        if (format == Format.COLUMNAR) {
+            throw new IOException("Columnar exports cannot be appended to");
+        }
+        if (isCompressed(output)) {
+            throw new IOException("Compressed exports cannot be appended to");
+        }
+        if (!Files.exists(output) || Files.size(output) == 0) {
+            return open(output, format);
+        }
+        if (format == Format.NDJSON) {
+            return resume(output, format, Files.size(output));
+        }
+        try (var channel = FileChannel.open(output, StandardOpenOption.READ)) {
+            var end = lastNonWhitespace(channel, channel.size());
+            if (end < 0 || readByte(channel, end) != ']') {
+                throw new IOException("Export " + output + " is not a complete JSON array");
+            }
+            return resume(output, format, end);
+        }
+    }
+
+    /**
+     * Continues writing an export that was left open, e.g. by an interrupted run. For JSON the export is expected
+     * to be an array without the closing bracket.
+     *
+     * @param size length of the export to keep, anything after it is discarded
+     */
+    static MessagesWriter resume(Path output, Format format, long size) throws IOException {
+        if (format == Format.COLUMNAR) {
+            throw new IOException("Columnar exports cannot be appended to");
+        }
+        if (format == Format.JSON && size == 0) {
+            return open(output, format);
+        }
+        var channel = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            channel.truncate(size);
+            var separate = format == Format.JSON && readByte(channel, lastNonWhitespace(channel, size)) != '[';
+            channel.position(size);
+            var writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+            return format == Format.JSON ? new MessagesWriter(writer, separate) : new MessagesWriter(writer, format);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static long lastNonWhitespace(FileChannel channel, long end) throws IOException {
+        for (long position = end - 1; position >= 0; position--) {
+            if (!Character.isWhitespace(readByte(channel, position))) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    static int readByte(FileChannel channel, long position) throws IOException {
+        if (position < 0) {
+            return -1;
+        }
+        var buffer = ByteBuffer.allocate(1);
+        channel.read(buffer, position);
+        return buffer.get(0);
+    }
+
+    void write(List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            write(message);
+        }
+    }
+
+    /**
+     * Copies all messages of the reader.
+     */
+    void write(MessagesReader reader) throws IOException {
+        try {
+            reader.forEach(message -> {
+                try {
+                    write(message);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    void write(Message message) throws IOException {
+        if (segmentWriter != null) {
+            segmentWriter.write(message);
+            count++;
+            return;
+        }
+        if (appending) {
+            if (separate) {
+                writer.write(',');
+            }
+            gson.toJson(message, Message.class, writer);
+            separate = true;
+            count++;
+            return;
+        }
+        switch (format) {
+            case JSON -> gson.toJson(message, Message.class, jsonWriter);
+            case NDJSON -> {
+                gson.toJson(message, Message.class, writer);
+                writer.write('\n');
+            }
+            case COLUMNAR -> columnarWriter.write(message);
+        }
+        count++;
+    }
+
+    long count() {
+        return count;
+    }
+
+    void flush() throws IOException {
+        if (segmentWriter != null) {
+            segmentWriter.flush();
+            return;
+        }
+        if (columnarWriter != null) {
+            // columns are joined on close only
+            return;
+        }
+        if (jsonWriter != null) {
+            jsonWriter.flush();
+        } else {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segmentWriter != null) {
+            segmentWriter.close();
+        } else if (appending) {
+            writer.write(']');
+            writer.close();
+        } else if (jsonWriter != null) {
+            jsonWriter.endArray();
+            jsonWriter.close();
+        } else if (columnarWriter != null) {
+            columnarWriter.close();
+        } else {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package pl.codeleak.slack.sleuth;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters, gauges and latency histograms recorded while commands run, reported as JSON or in the Prometheus
+ * text exposition format.
+ * <p>
+ * Metrics are identified by name and label pairs, e.g. {@code counter("sleuth_pages_fetched_total", "method",
+ * "conversations.history")}, and created on first use. Recording is lock-free, so metrics can be updated from
+ * any thread. Components record to the {@link #global() global} instance, which is reported by {@link App}
+ * with {@code --metrics}.
+ */
+final class Metrics {
+
+    private static final Metrics GLOBAL = new Metrics();
+
+    // upper bounds in seconds, the last bucket is unbounded
+    private static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    enum Format {
+        JSON, PROMETHEUS
+    }
+
+    private sealed interface Metric permits Counter, Gauge, Histogram {
+    }
+
+    static final class Counter implements Metric {
+
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long amount) {
+            value.add(amount);
+        }
+
+        long value() {
+            return value.sum();
+        }
+    }
+
+    private record Gauge(DoubleSupplier value) implements Metric {
+    }
+
+    static final class Histogram implements Metric {
+
+        private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            Arrays.setAll(counts, i -> new LongAdder());
+        }
+
+        void record(long nanos) {
+            var seconds = nanos / 1e9;
+            var bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            counts[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        long count() {
+            return Arrays.stream(counts).mapToLong(LongAdder::sum).sum();
+        }
+
+        /**
+         * @return number of recorded values up to every bucket bound, the last one being the total
+         */
+        private long[] cumulative() {
+            var cumulative = new long[counts.length];
+            var total = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i].sum();
+                cumulative[i] = total;
+            }
+            return cumulative;
+        }
+    }
+
+    private record Series(String name, Map<String, String> labels) {
+
+        String id() {
+            if (labels.isEmpty()) {
+                return name;
+            }
+            var id = new StringJoiner(",", name + "{", "}");
+            labels.forEach((key, value) -> id.add(key + "=\"" + escape(value) + "\""));
+            return id.toString();
+        }
+    }
+
+    private final Map<Series, Metric> metrics = new ConcurrentHashMap<>();
+
+    static Metrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param labels label names and values, alternately
+     */
+    Counter counter(String name, String... labels) {
+        return (Counter) metrics.computeIfAbsent(series(name, labels), series -> new Counter());
+    }
+
+    /**
+     * Latency histogram, recorded in nanoseconds and reported in seconds.
+     */
+    Histogram histogram(String name, String... labels) {
+        return (Histogram) metrics.computeIfAbsent(series(name, labels), series -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge read when the report is made, replacing a gauge of the same name and labels.
+     */
+    void gauge(String name, DoubleSupplier value, String... labels) {
+        metrics.put(series(name, labels), new Gauge(value));
+    }
+
+    /**
+     * Records messages processed by a stage, e.g. fetch or write. Besides totals of messages and time spent,
+     * the rate of the stage in messages per second is reported.
+     */
+    void processed(String stage, long messages, long nanos) {
+        var count = counter("sleuth_stage_messages_total", "stage", stage);
+        var time = counter("sleuth_stage_nanoseconds_total", "stage", stage);
+        count.add(messages);
+        time.add(nanos);
+        metrics.computeIfAbsent(series("sleuth_stage_messages_per_second", "stage", stage), series ->
+                new Gauge(() -> time.value() == 0 ? 0 : count.value() * 1e9 / time.value()));
+    }
+
+    /**
+     * Starts timing a phase, e.g. of the analysis. Closing the phase records its duration and bytes allocated
+     * meanwhile by all threads. Allocations are read per live thread, so those of threads that ended before the
+     * phase was suspended or closed, e.g. of a thread pool that was shut down, are not counted.
+     */
+    Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * Phase that may be suspended and resumed, e.g. to time alternate reading and processing of batches as two
+     * phases. Its duration and allocations are summed over the intervals it was running and recorded once.
+     */
+    final class Phase implements AutoCloseable {
+
+        private final String name;
+        private long nanos;
+        private long bytes;
+        private long started;
+        private long allocated;
+        private boolean running;
+        private boolean tracked = true;
+
+        private Phase(String name) {
+            this.name = name;
+            resume();
+        }
+
+        void resume() {
+            if (!running) {
+                running = true;
+                started = System.nanoTime();
+                allocated = allocatedBytes();
+            }
+        }
+
+        void suspend() {
+            if (running) {
+                running = false;
+                nanos += System.nanoTime() - started;
+                var current = allocatedBytes();
+                if (current < 0 || allocated < 0) {
+                    tracked = false;
+                } else {
+                    bytes += Math.max(0, current - allocated);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            suspend();
+            histogram("sleuth_phase_seconds", "phase", name).record(nanos);
+            if (tracked) {
+                counter("sleuth_phase_allocated_bytes_total", "phase", name).add(bytes);
+            }
+        }
+    }
+
+    /**
+     * @return bytes allocated by all live threads so far, -1 if the JVM does not track allocations
+     */
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+                .filter(bytes -> bytes > 0)
+                .sum();
+    }
+
+    void write(Path path, Format format) throws IOException {
+        var parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(path, report(format));
+    }
+
+    String report(Format format) {
+        var sorted = new TreeMap<String, Map.Entry<Series, Metric>>();
+        // series of one metric have to be reported together in the Prometheus format
+        metrics.entrySet().forEach(entry -> sorted.put(entry.getKey().name() + " " + entry.getKey().id(), entry));
+        return format == Format.JSON ? json(sorted.values()) : prometheus(sorted.values());
+    }
+
+    private static String json(Collection<Map.Entry<Series, Metric>> metrics) {
+        var report = new LinkedHashMap<String, List<Map<String, Object>>>();
+        report.put("counters", new ArrayList<>());
+        report.put("gauges", new ArrayList<>());
+        report.put("histograms", new ArrayList<>());
+        for (var entry : metrics) {
+            var json = new LinkedHashMap<String, Object>();
+            json.put("name", entry.getKey().name());
+            json.put("labels", entry.getKey().labels());
+            if (entry.getValue() instanceof Counter counter) {
+                json.put("value", counter.value());
+                report.get("counters").add(json);
+            } else if (entry.getValue() instanceof Gauge gauge) {
+                json.put("value", gauge.value().getAsDouble());
+                report.get("gauges").add(json);
+            } else if (entry.getValue() instanceof Histogram histogram) {
+                var cumulative = histogram.cumulative();
+                var buckets = new LinkedHashMap<String, Long>();
+                for (int i = 0; i < cumulative.length; i++) {
+                    buckets.put(bound(i), cumulative[i]);
+                }
+                json.put("count", cumulative[cumulative.length - 1]);
+                json.put("sum_seconds", histogram.sumNanos.sum() / 1e9);
+                json.put("buckets", buckets);
+                report.get("histograms").add(json);
+            }
+        }
+        return new GsonBuilder().setPrettyPrinting().create().toJson(report);
+    }
+
+    private static String prometheus(Collection<Map.Entry<Series, Metric>> metrics) {
+        var out = new StringBuilder();
+        var typed = new HashSet<String>();
+        for (var entry : metrics) {
+            var series = entry.getKey();
+            var metric = entry.getValue();
+            var type = metric instanceof Counter ? "counter" : metric instanceof Gauge ? "gauge" : "histogram";
+            if (typed.add(series.name())) {
+                out.append("# TYPE ").append(series.name()).append(' ').append(type).append('\n');
+            }
+            if (metric instanceof Counter counter) {
+                out.append(series.id()).append(' ').append(counter.value()).append('\n');
+            } else if (metric instanceof Gauge gauge) {
+                out.append(series.id()).append(' ').append(gauge.value().getAsDouble()).append('\n');
+            } else if (metric instanceof Histogram histogram) {
+                var cumulative = histogram.cumulative();
+                for (int i = 0; i < cumulative.length; i++) {
+                    var labels = new LinkedHashMap<>(series.labels());
+                    labels.put("le", bound(i));
+                    out.append(new Series(series.name() + "_bucket", labels).id()).append(' ').append(cumulative[i]).append('\n');
+                }
+                out.append(new Series(series.name() + "_sum", series.labels()).id()).append(' ')
+                        .append(histogram.sumNanos.sum() / 1e9).append('\n');
+                out.append(new Series(series.name() + "_count", series.labels()).id()).append(' ')
+                        .append(cumulative[cumulative.length - 1]).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static String bound(int bucket) {
+        return bucket < BUCKETS.length ? Double.toString(BUCKETS[bucket]) : "+Inf";
+    }
+
+    private static Series series(String name, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        }
+        var map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < labels.length; i += 2) {
+            map.put(labels[i], labels[i + 1]);
+        }
+        return new Series(name, map);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,110 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Computes {@link MessagesStatistics} on a fork-join pool. Incoming messages are cut into chunks, each chunk is
+ * aggregated into its own partial statistics and the partial statistics are merged in input order, so the result
+ * is the same as if all messages were passed to the target statistics one by one.
+ * <p>
+ * At most two chunks per thread are in flight at a time, so a streamed input is never buffered as a whole.
+ */
+final class ParallelStatistics implements Consumer<Message>, AutoCloseable {
+
+    static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    private final MessagesStatistics target;
+    private final int parallelism;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+    private final Deque<ForkJoinTask<MessagesStatistics>> pending = new ArrayDeque<>();
+
+    private List<Message> chunk;
+    private long sequence;
+
+    ParallelStatistics(MessagesStatistics target, int parallelism) {
+        this(target, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelStatistics(MessagesStatistics target, int parallelism, int chunkSize) {
+        this.target = target;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.pool = new ForkJoinPool(parallelism);
+        this.chunk = new ArrayList<>(chunkSize);
+        // continues after all messages passed to the target so far, e.g. from previous files
+        this.sequence = target.seen();
+    }
+
+    @Override
+    public void accept(Message message) {
+        chunk.add(message);
+        if (chunk.size() == chunkSize) {
+            submit();
+        }
+    }
+
+    /**
+     * Waits for all submitted chunks and merges them into the target statistics.
+     */
+    MessagesStatistics await() {
+        if (!chunk.isEmpty()) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            target.merge(pending.removeFirst().join());
+        }
+        return target;
+    }
+
+    /**
+     * Submits a chunk that is read by the task itself, e.g. a range of a columnar export.
+     *
+     * @param size number of messages the task passes to the partial statistics
+     */
+    void submit(int size, Consumer<MessagesStatistics> task) {
+        if (!chunk.isEmpty()) {
+            submit();
+        }
+        var partial = target.partial(sequence);
+        sequence += size;
+        pending.addLast(pool.submit(() -> {
+            task.accept(partial);
+            return partial;
+        }));
+        limitPending();
+    }
+
+    private void submit() {
+        var messages = chunk;
+        var partial = target.partial(sequence);
+        sequence += messages.size();
+        chunk = new ArrayList<>(chunkSize);
+
+        pending.addLast(pool.submit(() -> {
+            messages.forEach(partial);
+            return partial;
+        }));
+        limitPending();
+    }
+
+    private void limitPending() {
+        // merging the oldest chunk keeps memory bounded and the merge order deterministic
+        while (pending.size() > 2 * parallelism) {
+            target.merge(pending.removeFirst().join());
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
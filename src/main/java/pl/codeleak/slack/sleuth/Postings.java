@@ -0,0 +1,181 @@
+package pl.codeleak.slack.sleuth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Inverted index file: for every term the ids of documents containing it, in increasing order.
+ * <p>
+ * The file starts with a table of terms sorted by their UTF-8 bytes, so a term is found by binary search
+ * without loading the table. Each entry points to the term bytes and to its postings, which are stored as
+ * variable-length deltas between consecutive ids. The file is memory-mapped when read.
+ */
+final class Postings implements Closeable {
+
+    private static final int MAGIC = 0x534C5058; // "SLPX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int ENTRY_SIZE = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int termCount;
+
+    private Postings(FileChannel channel) throws IOException {
+        this.channel = channel;
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Postings file is too large to be mapped");
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Not a postings file");
+        }
+        this.termCount = buffer.getInt(2 * Integer.BYTES);
+    }
+
+    static Postings open(Path path) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new Postings(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param postings document ids of every term, each in increasing order
+     */
+    static void write(Path path, Map<String, int[]> postings) throws IOException {
+        var terms = postings.keySet().stream()
+                .map(term -> term.getBytes(StandardCharsets.UTF_8))
+                .sorted(Arrays::compareUnsigned)
+                .toArray(byte[][]::new);
+
+        var termBytes = new ByteArrayOutputStream();
+        var postingBytes = new ByteArrayOutputStream();
+        var table = ByteBuffer.allocate(terms.length * ENTRY_SIZE);
+        long termsStart = HEADER_SIZE + (long) terms.length * ENTRY_SIZE;
+        for (byte[] term : terms) {
+            var ids = postings.get(new String(term, StandardCharsets.UTF_8));
+            table.putLong(termsStart + termBytes.size())
+                    .putInt(term.length)
+                    .putLong(postingBytes.size())
+                    .putInt(ids.length);
+            termBytes.write(term);
+            var previous = 0;
+            for (int id : ids) {
+                writeVarInt(postingBytes, id - previous);
+                previous = id;
+            }
+        }
+
+        // postings offsets are relative until the size of the terms is known
+        var postingsStart = termsStart + termBytes.size();
+        for (int i = 0; i < terms.length; i++) {
+            var position = i * ENTRY_SIZE + Long.BYTES + Integer.BYTES;
+            table.putLong(position, postingsStart + table.getLong(position));
+        }
+
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(Files.newOutputStream(temporary))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(terms.length);
+            out.write(table.array());
+            termBytes.writeTo(out);
+            postingBytes.writeTo(out);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return ids of documents containing the term in increasing order, empty if there are none
+     */
+    int[] get(String term) {
+        var entry = find(term.getBytes(StandardCharsets.UTF_8));
+        if (entry < 0) {
+            return new int[0];
+        }
+        var position = entryPosition(entry) + Long.BYTES + Integer.BYTES;
+        var offset = (int) buffer.getLong(position);
+        var ids = new int[buffer.getInt(position + Long.BYTES)];
+        var id = 0;
+        for (int i = 0; i < ids.length; i++) {
+            var value = 0;
+            for (int shift = 0; ; shift += 7) {
+                var b = buffer.get(offset++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            id += value;
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    private int find(byte[] term) {
+        var low = 0;
+        var high = termCount - 1;
+        while (low <= high) {
+            var middle = (low + high) >>> 1;
+            var comparison = compare(middle, term);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int entry, byte[] term) {
+        var position = entryPosition(entry);
+        var offset = (int) buffer.getLong(position);
+        var length = buffer.getInt(position + Long.BYTES);
+        for (int i = 0; i < Math.min(length, term.length); i++) {
+            var comparison = Byte.compareUnsigned(buffer.get(offset + i), term[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, term.length);
+    }
+
+    private static int entryPosition(int entry) {
+        return HEADER_SIZE + entry * ENTRY_SIZE;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,444 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * Counters pre-aggregated per hour and per day, so trends are computed from buckets instead of messages.
+ * <p>
+ * For every bucket the following {@link Metric metrics} are kept: messages and reactions score per posting user,
+ * mentions per mentioned user and usages per tag. Counters live in primitive arrays keyed by bucket, metric and
+ * an id of the user or tag, and are saved to a compact binary file with keys in order.
+ * <p>
+ * Like {@link SearchIndex}, rollups record what has been aggregated from every source export. When an export grows,
+ * only its new messages are added. Counters cannot be taken back, so when an export was rewritten all sources are
+ * aggregated again.
+ */
+@Slf4j
+final class Rollups {
+
+    private static final int MAGIC = 0x534C5255; // "SLRU"
+    // version 2 adds the append offset of sources
+    private static final int VERSION = 2;
+    private static final int MAX_KEYS = 1 << 28;
+
+    enum Metric {
+        MESSAGES, MENTIONS, TAGS, REACTIONS
+    }
+
+    enum Resolution {
+        HOUR(3600), DAY(86400);
+
+        private final long seconds;
+
+        Resolution(long seconds) {
+            this.seconds = seconds;
+        }
+    }
+
+    /**
+     * Period of a trend, built from buckets of the finest sufficient resolution.
+     */
+    enum Granularity {
+        HOUR(Resolution.HOUR), DAY(Resolution.DAY), WEEK(Resolution.DAY), MONTH(Resolution.DAY), YEAR(Resolution.DAY);
+
+        private final Resolution resolution;
+
+        Granularity(Resolution resolution) {
+            this.resolution = resolution;
+        }
+
+        LocalDateTime start(LocalDateTime time) {
+            return switch (this) {
+                case HOUR -> time.truncatedTo(ChronoUnit.HOURS);
+                case DAY -> time.truncatedTo(ChronoUnit.DAYS);
+                case WEEK -> time.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH -> time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+                case YEAR -> time.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+            };
+        }
+    }
+
+    record Count(String key, long count) {
+    }
+
+    /**
+     * @param start start of the period in UTC
+     * @param top   keys with the highest counts in the period, highest first
+     */
+    record Period(LocalDateTime start, List<Count> top) {
+    }
+
+    private static final Comparator<Count> HIGHEST_FIRST = Comparator.comparingLong(Count::count)
+            .reversed()
+            .thenComparing(Count::key);
+
+    private final Path path;
+    private final List<String> keys = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<String, ExportState> sources = new LinkedHashMap<>();
+    private final Map<Resolution, Cells> cells = new EnumMap<>(Resolution.class);
+    private final MessageTextScanner scanner = new MessageTextScanner();
+
+    private Rollups(Path path) {
+        this.path = path;
+        for (Resolution resolution : Resolution.values()) {
+            cells.put(resolution, new Cells());
+        }
+    }
+
+    static Rollups open(Path path) throws IOException {
+        var rollups = new Rollups(path);
+        if (Files.exists(path)) {
+            rollups.read();
+        }
+        return rollups;
+    }
+
+    /**
+     * Aggregates messages of the export that are not aggregated yet and saves the rollups if anything was added.
+     *
+     * @return number of newly aggregated messages
+     */
+    long update(Path export) throws IOException {
+        var key = export.toAbsolutePath().normalize().toString();
+        var source = sources.get(key);
+        var change = source == null ? ExportState.Change.REWRITTEN : source.changeOf(export);
+        if (change == ExportState.Change.UNCHANGED) {
+            return 0;
+        }
+        long added;
+        if (change == ExportState.Change.APPENDED) {
+            added = source.readNew(export, this::add);
+        } else if (source != null) {
+            log.info("Export {} has changed, aggregating all exports again", export);
+            added = rebuild();
+        } else {
+            source = new ExportState();
+            sources.put(key, source);
+            added = source.readNew(export, this::add);
+        }
+        save();
+        return added;
+    }
+
+    private long rebuild() throws IOException {
+        cells.values().forEach(Cells::clear);
+        var added = 0L;
+        for (var iterator = sources.entrySet().iterator(); iterator.hasNext(); ) {
+            var entry = iterator.next();
+            var export = Path.of(entry.getKey());
+            if (!Files.exists(export)) {
+                iterator.remove();
+                continue;
+            }
+            var source = new ExportState();
+            entry.setValue(source);
+            added += source.readNew(export, this::add);
+        }
+        return added;
+    }
+
+    void add(Message message) {
+        var micros = ColumnarWriter.micros(message.getTs());
+        if (micros == ColumnarWriter.NONE) {
+            return;
+        }
+        var seconds = Math.floorDiv(micros, 1_000_000);
+        var score = MessagesAnalyzer.calculateReactionsScore(message);
+        scanner.scan(message.getText());
+        for (Resolution resolution : Resolution.values()) {
+            var bucket = Math.floorDiv(seconds, resolution.seconds);
+            var cells = this.cells.get(resolution);
+            if (message.getUser() != null) {
+                cells.add(key(bucket, Metric.MESSAGES, id(message.getUser())), 1);
+                if (score > 0) {
+                    cells.add(key(bucket, Metric.REACTIONS, id(message.getUser())), score);
+                }
+            }
+            for (int i = 0; i < scanner.mentionCount(); i++) {
+                cells.add(key(bucket, Metric.MENTIONS, id(scanner.mention(i))), 1);
+            }
+            for (int i = 0; i < scanner.tagCount(); i++) {
+                cells.add(key(bucket, Metric.TAGS, id(scanner.tag(i))), 1);
+            }
+        }
+    }
+
+    /**
+     * Visits only cells of the buckets in the time range, so the time taken depends on the number of buckets in
+     * the range and not on the number of messages they were aggregated from, nor on the cells of other buckets.
+     *
+     * @param from epoch seconds, buckets starting before are skipped
+     * @param to   epoch seconds, buckets starting at or after are skipped
+     * @return periods in the time range that have any count, oldest first
+     */
+    List<Period> top(Metric metric, Granularity granularity, long from, long to, int limit) {
+        var resolution = granularity.resolution;
+        var cells = this.cells.get(resolution);
+        var fromBucket = Math.floorDiv(from + resolution.seconds - 1, resolution.seconds);
+        var toBucket = Math.floorDiv(to + resolution.seconds - 1, resolution.seconds);
+
+        var periods = new TreeMap<LocalDateTime, Map<Integer, Long>>();
+        cells.forEachKey(fromBucket, toBucket, key -> {
+            if ((int) (key >>> 28 & 0xF) != metric.ordinal()) {
+                return;
+            }
+            var time = LocalDateTime.ofEpochSecond((key >>> 32) * resolution.seconds, 0, ZoneOffset.UTC);
+            periods.computeIfAbsent(granularity.start(time), start -> new HashMap<>())
+                    .merge((int) (key & (MAX_KEYS - 1)), cells.get(key), Long::sum);
+        });
+
+        var result = new ArrayList<Period>(periods.size());
+        periods.forEach((start, counts) -> {
+            var top = new TopK<>(limit, HIGHEST_FIRST);
+            counts.forEach((id, count) -> top.offer(new Count(keys.get(id), count)));
+            result.add(new Period(start, top.toList()));
+        });
+        return result;
+    }
+
+    private static long key(long bucket, Metric metric, int id) {
+        return bucket << 32 | (long) metric.ordinal() << 28 | id;
+    }
+
+    private int id(String key) {
+        var id = ids.get(key);
+        if (id == null) {
+            if (keys.size() == MAX_KEYS) {
+                throw new IllegalStateException("Too many distinct users and tags for rollups");
+            }
+            id = keys.size();
+            keys.add(key);
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    private void read() throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            var magic = in.readInt();
+            var version = in.readInt();
+            if (magic != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("Not a rollups file: " + path);
+            }
+            var keyCount = in.readInt();
+            for (int i = 0; i < keyCount; i++) {
+                id(in.readUTF());
+            }
+            var sourceCount = in.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                var key = in.readUTF();
+                var source = new ExportState();
+                source.size = in.readLong();
+                source.lastModified = in.readLong();
+                source.headSize = in.readInt();
+                source.headChecksum = in.readLong();
+                source.count = in.readLong();
+                if (version >= 2) {
+                    source.appendOffset = in.readLong();
+                }
+                sources.put(key, source);
+            }
+            for (Resolution resolution : Resolution.values()) {
+                var cells = this.cells.get(resolution);
+                var size = in.readInt();
+                var key = 0L;
+                for (int i = 0; i < size; i++) {
+                    key += readVarLong(in);
+                    cells.add(key, readVarLong(in));
+                }
+            }
+        }
+    }
+
+    /**
+     * Keys are written in order as variable-length deltas, so neighbouring buckets take a few bytes per counter.
+     */
+    private void save() throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.size());
+            for (String key : keys) {
+                out.writeUTF(key);
+            }
+            out.writeInt(sources.size());
+            for (var entry : sources.entrySet()) {
+                var source = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(source.size);
+                out.writeLong(source.lastModified);
+                out.writeInt(source.headSize);
+                out.writeLong(source.headChecksum);
+                out.writeLong(source.count);
+                out.writeLong(source.appendOffset);
+            }
+            for (Resolution resolution : Resolution.values()) {
+                var cells = this.cells.get(resolution);
+                var sortedKeys = cells.sortedKeys();
+                out.writeInt(sortedKeys.length);
+                var previous = 0L;
+                for (long key : sortedKeys) {
+                    writeVarLong(out, key - previous);
+                    writeVarLong(out, cells.get(key));
+                    previous = key;
+                }
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        var value = 0L;
+        for (int shift = 0; ; shift += 7) {
+            var b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Open addressing hash table of non-negative {@code long} keys and {@code long} counters. Keys are also listed
+     * per bucket, in a map ordered by bucket, so that a range of buckets is visited without touching the others.
+     */
+    private static final class Cells {
+
+        private static final long EMPTY = -1;
+
+        private long[] keys;
+        private long[] values;
+        private int size;
+        private final TreeMap<Long, BucketKeys> buckets = new TreeMap<>();
+
+        Cells() {
+            clear();
+        }
+
+        void clear() {
+            keys = new long[1024];
+            Arrays.fill(keys, EMPTY);
+            values = new long[keys.length];
+            size = 0;
+            buckets.clear();
+        }
+
+        void add(long key, long delta) {
+            var slot = slot(key);
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                buckets.computeIfAbsent(key >>> 32, bucket -> new BucketKeys()).add(key);
+                if (++size * 4 > keys.length * 3) {
+                    values[slot] = delta;
+                    grow();
+                    return;
+                }
+            }
+            values[slot] += delta;
+        }
+
+        long get(long key) {
+            var slot = slot(key);
+            return keys[slot] == EMPTY ? 0 : values[slot];
+        }
+
+        /**
+         * Passes keys of buckets from {@code fromBucket} inclusive to {@code toBucket} exclusive, in bucket order.
+         */
+        void forEachKey(long fromBucket, long toBucket, LongConsumer action) {
+            if (fromBucket >= toBucket) {
+                return;
+            }
+            for (BucketKeys bucket : buckets.subMap(fromBucket, toBucket).values()) {
+                for (int i = 0; i < bucket.size; i++) {
+                    action.accept(bucket.keys[i]);
+                }
+            }
+        }
+
+        /**
+         * @return all keys in increasing order, i.e. by bucket, then metric, then user or tag
+         */
+        long[] sortedKeys() {
+            var sorted = new long[size];
+            var i = 0;
+            for (BucketKeys bucket : buckets.values()) {
+                System.arraycopy(bucket.keys, 0, sorted, i, bucket.size);
+                Arrays.sort(sorted, i, i + bucket.size);
+                i += bucket.size;
+            }
+            return sorted;
+        }
+
+        private int slot(long key) {
+            var mask = keys.length - 1;
+            var slot = (int) (mix(key) & mask);
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            var oldKeys = keys;
+            var oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            values = new long[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    var slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static long mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xFF51AFD7ED558CCDL;
+            return key ^ key >>> 33;
+        }
+    }
+
+    private static final class BucketKeys {
+
+        private long[] keys = new long[8];
+        private int size;
+
+        void add(long key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import com.slack.api.util.json.GsonFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * On-disk full-text index of exports, kept in its own directory.
+ * <p>
+ * The index consists of immutable segments of up to {@code segmentSize} messages. Each segment is a columnar export
+ * of its messages (see {@link ColumnarWriter}) and a {@link Postings} file mapping terms to message ids. Terms are
+ * lower-cased words of the text, plus {@code user:<id>} for the posting user, {@code mention:<id>} for mentioned users
+ * and {@code tag:<#tag>} for tags, so filters are answered by the postings too.
+ * <p>
+ * A manifest records what has been indexed from every source export. When an export grows, e.g. by incremental sync,
+ * only its new messages are indexed. They are added to the last segment of the export while it has fewer than
+ * {@code segmentSize} messages, by writing that segment again, so that small updates do not pile up segments that
+ * every search has to open. An export that was rewritten is indexed again.
+ */
+@Slf4j
+final class SearchIndex implements Closeable {
+
+    static final int DEFAULT_SEGMENT_SIZE = 1_000_000;
+
+    private static final String MANIFEST = "manifest.json";
+    static final class Source extends ExportState {
+        List<String> segments = new ArrayList<>();
+    }
+
+    static final class Manifest {
+        int nextSegment;
+        Map<String, Source> sources = new LinkedHashMap<>();
+    }
+
+    /**
+     * @param terms all terms a message must contain, may be empty
+     * @param from  epoch seconds, exclusive like {@link TimeRange}
+     * @param to    epoch seconds, exclusive like {@link TimeRange}
+     */
+    record Query(List<String> terms, String from, String to) {
+    }
+
+    private record Segment(ColumnarReader documents, Postings postings) {
+    }
+
+    private record Hit(long micros, Segment segment, int id) {
+
+        static final Comparator<Hit> NEWEST_FIRST = Comparator.comparingLong(Hit::micros).reversed();
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Manifest manifest;
+    private final Map<String, Segment> segments = new HashMap<>();
+
+    private SearchIndex(Path directory, int segmentSize, Manifest manifest) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.manifest = manifest;
+    }
+
+    static SearchIndex open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    static SearchIndex open(Path directory, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        var path = directory.resolve(MANIFEST);
+        var manifest = Files.exists(path)
+                ? GsonFactory.createSnakeCase().fromJson(Files.readString(path), Manifest.class)
+                : new Manifest();
+        return new SearchIndex(directory, segmentSize, manifest);
+    }
+
+    /**
+     * Indexes messages of the export that are not indexed yet.
+     *
+     * @return number of newly indexed messages
+     */
+    long update(Path export) throws IOException {
+        var key = export.toAbsolutePath().normalize().toString();
+        var source = manifest.sources.get(key);
+        var change = source == null ? ExportState.Change.REWRITTEN : source.changeOf(export);
+        if (change == ExportState.Change.UNCHANGED) {
+            return 0;
+        }
+        if (change == ExportState.Change.REWRITTEN && source != null) {
+            log.info("Export {} has changed, indexing it again", export);
+            drop(source);
+            source = null;
+        }
+        if (source == null) {
+            source = new Source();
+            manifest.sources.put(key, source);
+        }
+
+        var indexer = new Indexer(source);
+        long indexed;
+        try {
+            indexed = source.readNew(export, indexer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        indexer.finish();
+        save();
+        if (indexer.replaced != null) {
+            delete(indexer.replaced);
+        }
+        return indexed;
+    }
+
+    int segmentCount() {
+        return manifest.sources.values().stream().mapToInt(source -> source.segments.size()).sum();
+    }
+
+    /**
+     * @return newest messages matching the query, at most {@code limit}
+     */
+    List<Message> search(Query query, int limit) throws IOException {
+        var from = Long.parseLong(query.from()) * 1_000_000;
+        var to = Long.parseLong(query.to()) * 1_000_000;
+        var top = new TopK<>(limit, Hit.NEWEST_FIRST);
+        for (Source source : manifest.sources.values()) {
+            for (String name : source.segments) {
+                var segment = segment(name);
+                var ids = matching(segment, query.terms());
+                for (int id : ids) {
+                    var micros = segment.documents().micros(id);
+                    if (micros > from && micros < to) {
+                        top.offer(new Hit(micros, segment, id));
+                    }
+                }
+            }
+        }
+        return top.toList().stream()
+                .map(hit -> hit.segment().documents().message(hit.id()))
+                .toList();
+    }
+
+    private static int[] matching(Segment segment, List<String> terms) {
+        if (terms.isEmpty()) {
+            var all = new int[segment.documents().count()];
+            Arrays.setAll(all, i -> i);
+            return all;
+        }
+        // intersecting the shortest postings first keeps intermediate results small
+        var postings = terms.stream()
+                .distinct()
+                .map(segment.postings()::get)
+                .sorted(Comparator.comparingInt(ids -> ids.length))
+                .toList();
+        var result = postings.get(0);
+        for (int i = 1; i < postings.size() && result.length > 0; i++) {
+            result = intersect(result, postings.get(i));
+        }
+        return result;
+    }
+
+    static int[] intersect(int[] left, int[] right) {
+        var result = new int[Math.min(left.length, right.length)];
+        var size = 0;
+        for (int i = 0, j = 0; i < left.length && j < right.length; ) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                result[size++] = left[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return distinct terms of the message
+     */
+    static Set<String> terms(Message message, MessageTextScanner scanner) {
+        var terms = new HashSet<String>();
+        words(message.getText(), terms::add);
+        if (message.getUser() != null) {
+            terms.add("user:" + message.getUser());
+        }
+        scanner.scan(message.getText());
+        for (int i = 0; i < scanner.mentionCount(); i++) {
+            terms.add("mention:" + scanner.mention(i));
+        }
+        for (int i = 0; i < scanner.tagCount(); i++) {
+            terms.add(tagTerm(scanner.tag(i)));
+        }
+        return terms;
+    }
+
+    static String tagTerm(String tag) {
+        return "tag:" + (tag.startsWith("#") ? tag : "#" + tag).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits the text into lower-cased words, i.e. runs of letters and digits.
+     */
+    static void words(String text, Consumer<String> consumer) {
+        if (text == null) {
+            return;
+        }
+        var word = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            var codePoint = text.codePointAt(i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(Character.toLowerCase(codePoint));
+            } else if (!word.isEmpty()) {
+                consumer.accept(word.toString());
+                word.setLength(0);
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (!word.isEmpty()) {
+            consumer.accept(word.toString());
+        }
+    }
+
+    private Segment segment(String name) throws IOException {
+        var segment = segments.get(name);
+        if (segment == null) {
+            segment = new Segment(ColumnarReader.open(directory.resolve(name + MessagesWriter.Format.COLUMNAR.extension())),
+                    Postings.open(directory.resolve(name + ".postings")));
+            segments.put(name, segment);
+        }
+        return segment;
+    }
+
+    private void drop(Source source) throws IOException {
+        for (String name : source.segments) {
+            delete(name);
+        }
+        manifest.sources.values().remove(source);
+    }
+
+    private void delete(String name) throws IOException {
+        var segment = segments.remove(name);
+        if (segment != null) {
+            segment.documents().close();
+            segment.postings().close();
+        }
+        Files.deleteIfExists(directory.resolve(name + MessagesWriter.Format.COLUMNAR.extension()));
+        Files.deleteIfExists(directory.resolve(name + ".postings"));
+    }
+
+    private void save() throws IOException {
+        var path = directory.resolve(MANIFEST);
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temporary, GsonFactory.createSnakeCase().toJson(manifest));
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.documents().close();
+            segment.postings().close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Adds messages to new segments, starting a new segment every {@code segmentSize} messages. The first segment
+     * continues the last segment of the source if it is not full; the replaced segment is deleted by the caller once
+     * the manifest no longer refers to it.
+     */
+    private final class Indexer implements Consumer<Message> {
+
+        private final Source source;
+        private boolean started;
+        private String replaced;
+        private SegmentBuilder builder;
+
+        Indexer(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public void accept(Message message) {
+            try {
+                if (builder == null) {
+                    builder = new SegmentBuilder(String.format("%06d", manifest.nextSegment++));
+                    if (!started) {
+                        started = true;
+                        continueLastSegment();
+                    }
+                }
+                builder.add(message);
+                if (builder.count == segmentSize) {
+                    finish();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void continueLastSegment() throws IOException {
+            if (source.segments.isEmpty()) {
+                return;
+            }
+            var last = source.segments.get(source.segments.size() - 1);
+            var documents = segment(last).documents();
+            if (documents.count() >= segmentSize) {
+                return;
+            }
+            for (int i = 0; i < documents.count(); i++) {
+                builder.add(documents.message(i));
+            }
+            source.segments.remove(source.segments.size() - 1);
+            replaced = last;
+        }
+
+        void finish() throws IOException {
+            if (builder != null) {
+                source.segments.add(builder.finish());
+                builder = null;
+            }
+        }
+    }
+
+    /**
+     * Collects postings of one segment in memory and writes the segment files.
+     */
+    private final class SegmentBuilder {
+
+        private final String name;
+        private final ColumnarWriter documents;
+        private final Map<String, DocumentIds> postings = new HashMap<>();
+        private final MessageTextScanner scanner = new MessageTextScanner();
+        private int count;
+
+        SegmentBuilder(String name) throws IOException {
+            this.name = name;
+            this.documents = ColumnarWriter.open(directory.resolve(name + MessagesWriter.Format.COLUMNAR.extension()));
+        }
+
+        void add(Message message) throws IOException {
+            documents.write(message);
+            for (String term : terms(message, scanner)) {
+                postings.computeIfAbsent(term, key -> new DocumentIds()).add(count);
+            }
+            count++;
+        }
+
+        String finish() throws IOException {
+            documents.close();
+            var ids = new HashMap<String, int[]>();
+            postings.forEach((term, documentIds) -> ids.put(term, documentIds.toArray()));
+            Postings.write(directory.resolve(name + ".postings"), ids);
+            return name;
+        }
+    }
+
+    private static final class DocumentIds {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+}
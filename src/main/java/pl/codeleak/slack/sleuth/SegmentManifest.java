@@ -0,0 +1,68 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.util.json.GsonFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of a segment store: a directory holding an export split into one file per day or week.
+ * <p>
+ * For every segment the manifest records its file, the {@code ts} of its oldest and newest message and the number of
+ * messages, so a time range can be analyzed without opening segments outside of it. Segments are listed in export
+ * order, newest first.
+ */
+final class SegmentManifest {
+
+    static final String FILE_NAME = "manifest.json";
+
+    static final class Segment {
+        String file;
+        String oldestTs;
+        String latestTs;
+        long count;
+
+        /**
+         * Bounds are epoch seconds, exclusive like {@code oldest} and {@code latest} of conversations.history.
+         */
+        boolean overlaps(String from, String to) {
+            return SyncState.isAfter(latestTs, from) && SyncState.isAfter(to, oldestTs);
+        }
+    }
+
+    MessagesWriter.Format format;
+    SegmentWriter.Partitioning partitioning;
+    List<Segment> segments = new ArrayList<>();
+
+    static Path pathFor(Path directory) {
+        return directory.resolve(FILE_NAME);
+    }
+
+    static boolean exists(Path directory) {
+        return Files.isRegularFile(pathFor(directory));
+    }
+
+    static SegmentManifest load(Path directory) throws IOException {
+        return GsonFactory.createSnakeCase().fromJson(Files.readString(pathFor(directory)), SegmentManifest.class);
+    }
+
+    void save(Path directory) throws IOException {
+        var path = pathFor(directory);
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temporary, GsonFactory.createSnakeCase().toJson(this));
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return segments with at least one message between {@code from} and {@code to}, in export order
+     */
+    List<Segment> overlapping(String from, String to) {
+        return segments.stream()
+                .filter(segment -> segment.overlaps(from, to))
+                .toList();
+    }
+}
@@ -0,0 +1,113 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits an export into segments by the UTC date of messages, one file per day or week, and keeps
+ * the {@link SegmentManifest} of the directory up to date.
+ * <p>
+ * Replies are kept in the segment of their thread, next to their parent. Messages are expected to arrive grouped
+ * by segment, as they do when fetched page by page. A segment seen again later is appended to, which is not
+ * supported for the columnar format.
+ */
+final class SegmentWriter implements Closeable {
+
+    enum Partitioning {
+        DAY, WEEK;
+
+        LocalDate start(LocalDate date) {
+            return this == DAY ? date : date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+    }
+
+    private final Path directory;
+    private final MessagesWriter.Format format;
+    private final Partitioning partitioning;
+    private final SegmentManifest manifest = new SegmentManifest();
+    private final Map<String, SegmentManifest.Segment> segments = new HashMap<>();
+
+    private SegmentManifest.Segment segment;
+    private MessagesWriter writer;
+
+    private SegmentWriter(Path directory, MessagesWriter.Format format, Partitioning partitioning) {
+        this.directory = directory;
+        this.format = format;
+        this.partitioning = partitioning;
+        this.manifest.format = format;
+        this.manifest.partitioning = partitioning;
+    }
+
+    static SegmentWriter open(Path directory, MessagesWriter.Format format, Partitioning partitioning) throws IOException {
+        Files.createDirectories(directory);
+        return new SegmentWriter(directory, format, partitioning);
+    }
+
+    void write(Message message) throws IOException {
+        var file = fileFor(message.getThreadTs() != null ? message.getThreadTs() : message.getTs());
+        if (segment == null || !segment.file.equals(file)) {
+            switchTo(file);
+        }
+        writer.write(message);
+        segment.count++;
+        if (message.getTs() != null) {
+            segment.latestTs = SyncState.max(segment.latestTs, message.getTs());
+            segment.oldestTs = segment.oldestTs == null || SyncState.isAfter(segment.oldestTs, message.getTs())
+                    ? message.getTs()
+                    : segment.oldestTs;
+        }
+    }
+
+    private String fileFor(String ts) {
+        var seconds = ts == null ? 0 : new BigDecimal(ts).longValue();
+        var date = LocalDate.ofInstant(Instant.ofEpochSecond(seconds), ZoneOffset.UTC);
+        return partitioning.start(date) + format.extension();
+    }
+
+    private void switchTo(String file) throws IOException {
+        closeSegment();
+        var path = directory.resolve(file);
+        segment = segments.get(file);
+        if (segment == null) {
+            segment = new SegmentManifest.Segment();
+            segment.file = file;
+            segments.put(file, segment);
+            manifest.segments.add(segment);
+            writer = MessagesWriter.open(path, format);
+        } else {
+            writer = MessagesWriter.append(path, format);
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            manifest.save(directory);
+        }
+    }
+
+    void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+        manifest.save(directory);
+    }
+}
@@ -0,0 +1,321 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.Slack;
+import com.slack.api.SlackConfig;
+import com.slack.api.methods.AsyncMethodsClient;
+import com.slack.api.methods.MethodsClient;
+import com.slack.api.methods.SlackApiException;
+import com.slack.api.methods.SlackApiTextResponse;
+import com.slack.api.util.http.SlackHttpClient;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Slack Web API client shared by all commands, which keeps calls within Slack rate limits.
+ * <p>
+ * Calls are paced by a token bucket per rate limit tier of the called method. Rate limited calls (HTTP 429)
+ * are retried after the {@code Retry-After} delay, which also pauses all other calls of the same tier.
+ * Network and server errors are retried with exponential backoff and full jitter.
+ * <p>
+ * Calls can also be made asynchronously, so that e.g. fetches of threads and users overlap.
+ * <p>
+ * Latency of every call and bytes of responses are recorded to {@link Metrics#global() metrics}.
+ */
+@Slf4j
+final class SlackClient {
+
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final int MAX_CONNECTIONS = 16;
+
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    /**
+     * Web API rate limit tiers, see https://api.slack.com/docs/rate-limits
+     */
+    enum Tier {
+        TIER_1(1), TIER_2(20), TIER_3(50), TIER_4(100);
+
+        private final int requestsPerMinute;
+
+        Tier(int requestsPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+        }
+
+        static Tier of(String method) {
+            return switch (method) {
+                case "conversations.list", "users.list" -> TIER_2;
+                case "conversations.history", "conversations.replies" -> TIER_3;
+                default -> TIER_4;
+            };
+        }
+    }
+
+    @FunctionalInterface
+    interface Call<T> {
+        T execute(MethodsClient methods) throws IOException, SlackApiException;
+    }
+
+    @FunctionalInterface
+    interface AsyncCall<T> {
+        CompletableFuture<T> execute(AsyncMethodsClient methods);
+    }
+
+    /**
+     * @param waitedMillis time spent waiting for rate limits and backoff
+     */
+    record Stats(long calls, long throttled, long retries, long waitedMillis) {
+    }
+
+    private final MethodsClient methods;
+    private final AsyncMethodsClient asyncMethods;
+    private final int maxAttempts;
+    private final boolean paced;
+    private final Map<Tier, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong waitedNanos = new AtomicLong();
+
+    SlackClient(MethodsClient methods) {
+        this(methods, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    SlackClient(MethodsClient methods, int maxAttempts) {
+        this(methods, null, maxAttempts);
+    }
+
+    SlackClient(MethodsClient methods, AsyncMethodsClient asyncMethods, int maxAttempts) {
+        this(methods, asyncMethods, maxAttempts, true);
+    }
+
+    /**
+     * @param paced {@code false} to make calls as fast as possible, e.g. to a local server in load tests;
+     *              {@code Retry-After} of rate limited calls is still respected
+     */
+    SlackClient(MethodsClient methods, AsyncMethodsClient asyncMethods, int maxAttempts, boolean paced) {
+        this.methods = methods;
+        this.asyncMethods = asyncMethods;
+        this.maxAttempts = maxAttempts;
+        this.paced = paced;
+    }
+
+    /**
+     * Creates a client backed by one tuned HTTP client: connections are kept alive and reused by all calls, up to
+     * {@link #MAX_CONNECTIONS} idle ones. OkHttp negotiates gzip responses transparently.
+     *
+     * @param apiUrl Web API endpoint, {@code null} for the Slack default
+     */
+    static SlackClient connect(String apiUrl) {
+        return connect(apiUrl, true);
+    }
+
+    static SlackClient connect(String apiUrl, boolean paced) {
+        var httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_CONNECTIONS, 5, TimeUnit.MINUTES))
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .addInterceptor(chain -> countBytes(chain.proceed(chain.request())))
+                .build();
+        var config = new SlackConfig();
+        if (apiUrl != null) {
+            config.setMethodsEndpointUrlPrefix(apiUrl);
+        }
+        var slack = Slack.getInstance(config, new SlackHttpClient(httpClient));
+        return new SlackClient(slack.methods(), slack.methodsAsync(), DEFAULT_MAX_ATTEMPTS, paced);
+    }
+
+    /**
+     * Counts bytes of the response body as it is read, after it is decompressed.
+     */
+    private static Response countBytes(Response response) {
+        var body = response.body();
+        if (body == null) {
+            return response;
+        }
+        var bytes = Metrics.global().counter("sleuth_api_response_bytes_total");
+        var source = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                var read = super.read(sink, byteCount);
+                if (read > 0) {
+                    bytes.add(read);
+                }
+                return read;
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(source), body.contentType(), body.contentLength()))
+                .build();
+    }
+
+    /**
+     * Executes the call, waiting for a permit and retrying if it was rate limited or failed intermittently.
+     *
+     * @param method Web API method name, e.g. {@code conversations.history}
+     */
+    <T extends SlackApiTextResponse> T call(String method, Call<T> call) throws IOException, SlackApiException {
+        var bucket = buckets.computeIfAbsent(Tier.of(method), this::bucket);
+        for (int attempt = 1; ; attempt++) {
+            sleep(bucket.reserve());
+            calls.incrementAndGet();
+            var started = System.nanoTime();
+            T response;
+            try {
+                response = call.execute(methods);
+            } catch (IOException | SlackApiException e) {
+                latency(method).record(System.nanoTime() - started);
+                var delay = retryDelay(method, bucket, attempt, null, e);
+                if (delay < 0) {
+                    throw e;
+                }
+                sleep(delay);
+                continue;
+            }
+            latency(method).record(System.nanoTime() - started);
+            var delay = retryDelay(method, bucket, attempt, response, null);
+            if (delay < 0) {
+                return response;
+            }
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #call}, with the same pacing and retries. No thread is blocked while waiting
+     * for a permit or before a retry. The SDK executes each call synchronously on its own executor, so a call
+     * holds one of its threads while waiting for the response.
+     */
+    <T extends SlackApiTextResponse> CompletableFuture<T> callAsync(String method, AsyncCall<T> call) {
+        return attemptAsync(method, call, buckets.computeIfAbsent(Tier.of(method), this::bucket), 1);
+    }
+
+    private <T extends SlackApiTextResponse> CompletableFuture<T> attemptAsync(String method, AsyncCall<T> call,
+                                                                              TokenBucket bucket, int attempt) {
+        return delay(bucket.reserve())
+                .thenCompose(ignored -> {
+                    calls.incrementAndGet();
+                    var started = System.nanoTime();
+                    return call.execute(asyncMethods)
+                            .whenComplete((response, failure) -> latency(method).record(System.nanoTime() - started));
+                })
+                .handle((response, failure) -> {
+                    var cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                    var delay = retryDelay(method, bucket, attempt, response, cause);
+                    if (delay < 0) {
+                        return cause == null ? CompletableFuture.completedFuture(response) : CompletableFuture.<T>failedFuture(cause);
+                    }
+                    return delay(delay).thenCompose(ignored -> attemptAsync(method, call, bucket, attempt + 1));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * @return nanoseconds to wait before the next attempt or -1 if the call is not retried
+     */
+    private long retryDelay(String method, TokenBucket bucket, int attempt, SlackApiTextResponse response, Throwable failure) {
+        if (attempt >= maxAttempts) {
+            return -1;
+        }
+        if (failure == null) {
+            if (!response.isOk() && "ratelimited".equals(response.getError())) {
+                throttled(method, bucket, null);
+                return 0;
+            }
+            return -1;
+        }
+        if (failure instanceof SlackApiException e) {
+            var code = e.getResponse() == null ? 0 : e.getResponse().code();
+            if (code == 429) {
+                throttled(method, bucket, e.getResponse().header("Retry-After"));
+                return 0;
+            }
+            return code >= 500 ? backoff(method, attempt, "HTTP " + code) : -1;
+        }
+        if (failure instanceof IOException && !(failure instanceof InterruptedIOException)) {
+            return backoff(method, attempt, failure.getMessage());
+        }
+        return -1;
+    }
+
+    private static Metrics.Histogram latency(String method) {
+        return Metrics.global().histogram("sleuth_api_call_seconds", "method", method);
+    }
+
+    Stats stats() {
+        return new Stats(calls.get(), throttled.get(), retries.get(), TimeUnit.NANOSECONDS.toMillis(waitedNanos.get()));
+    }
+
+    private void throttled(String method, TokenBucket bucket, String retryAfter) {
+        throttled.incrementAndGet();
+        retries.incrementAndGet();
+        var delay = TimeUnit.SECONDS.toNanos(parseRetryAfter(retryAfter));
+        log.warn("Rate limited calling {}, retrying in {} ms", method, TimeUnit.NANOSECONDS.toMillis(delay));
+        bucket.block(delay);
+    }
+
+    private long backoff(String method, int attempt, String reason) {
+        retries.incrementAndGet();
+        var backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        var delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+        log.warn("Calling {} failed ({}), retrying in {} ms", method, reason, delay);
+        return TimeUnit.MILLISECONDS.toNanos(delay);
+    }
+
+    private CompletableFuture<Void> delay(long nanos) {
+        if (nanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        waitedNanos.addAndGet(nanos);
+        return CompletableFuture.runAsync(() -> {
+        }, CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS));
+    }
+
+    private void sleep(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        waitedNanos.addAndGet(nanos);
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Slack rate limit");
+        }
+    }
+
+    static long parseRetryAfter(String retryAfter) {
+        try {
+            return retryAfter == null ? 1 : Math.max(1, Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private TokenBucket bucket(Tier tier) {
+        if (!paced) {
+            return new TokenBucket(1e9, Integer.MAX_VALUE);
+        }
+        // a small burst lets short commands run without any pacing
+        return new TokenBucket(tier.requestsPerMinute / 60.0, Math.max(1, tier.requestsPerMinute / 10));
+    }
+}
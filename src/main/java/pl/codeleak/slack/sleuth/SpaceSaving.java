@@ -0,0 +1,186 @@
+package pl.codeleak.slack.sleuth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy hitters sketch. It tracks at most {@code capacity} keys no matter how many distinct keys
+ * are added. Once full, a new key takes over the least frequent counter and inherits its count as the error,
+ * so every reported count overestimates the true count by at most {@code total / capacity}.
+ */
+final class SpaceSaving {
+
+    private static final Comparator<Estimate> MOST_FREQUENT_FIRST = Comparator.comparingLong(Estimate::count)
+            .reversed()
+            .thenComparing(Estimate::key, Comparator.nullsLast(Comparator.naturalOrder()));
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    // min-heap on count, the root is the counter to be replaced next
+    private final Counter[] heap;
+    private int size;
+    private long total;
+
+    SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>();
+        this.heap = new Counter[capacity];
+    }
+
+    /**
+     * @param error maximum overestimation of any count, as a fraction of the total number of added keys
+     */
+    static SpaceSaving withError(double error) {
+        if (error <= 0 || error >= 1) {
+            throw new IllegalArgumentException("Error must be in range of (0, 1)");
+        }
+        return new SpaceSaving((int) Math.ceil(1 / error));
+    }
+
+    void add(String key) {
+        total++;
+        var counter = counters.get(key);
+        if (counter != null) {
+            counter.count++;
+            siftDown(counter.position);
+        } else if (size < capacity) {
+            counter = new Counter(key);
+            counter.count = 1;
+            counter.position = size;
+            heap[size++] = counter;
+            counters.put(key, counter);
+            siftUp(counter.position);
+        } else {
+            counter = heap[0];
+            counters.remove(counter.key);
+            counter.key = key;
+            counter.error = counter.count;
+            counter.count++;
+            counters.put(key, counter);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Merges counters of another sketch of the same capacity into this one. The merged sketch keeps its error bound
+     * relative to the combined total: keys missing from a full sketch are assumed to have its minimum count.
+     */
+    void merge(SpaceSaving other) {
+        var thisMin = maxError();
+        var otherMin = other.maxError();
+        var merged = new ArrayList<Counter>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            var counter = heap[i];
+            var otherCounter = other.counters.get(counter.key);
+            counter.count += otherCounter == null ? otherMin : otherCounter.count;
+            counter.error += otherCounter == null ? otherMin : otherCounter.error;
+            merged.add(counter);
+        }
+        for (int i = 0; i < other.size; i++) {
+            var otherCounter = other.heap[i];
+            if (!counters.containsKey(otherCounter.key)) {
+                var counter = new Counter(otherCounter.key);
+                counter.count = otherCounter.count + thisMin;
+                counter.error = otherCounter.error + thisMin;
+                merged.add(counter);
+            }
+        }
+        merged.sort(Comparator.<Counter>comparingLong(counter -> counter.count)
+                .reversed()
+                .thenComparing(counter -> counter.key, Comparator.nullsLast(Comparator.naturalOrder())));
+
+        counters.clear();
+        size = Math.min(capacity, merged.size());
+        for (int i = 0; i < size; i++) {
+            var counter = merged.get(i);
+            counters.put(counter.key, counter);
+            place(counter, i);
+        }
+        Arrays.fill(heap, size, capacity, null);
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        total += other.total;
+    }
+
+    long total() {
+        return total;
+    }
+
+    /**
+     * @return upper bound of the error of any reported count
+     */
+    long maxError() {
+        return size < capacity ? 0 : heap[0].count;
+    }
+
+    List<Estimate> top(int k) {
+        var top = new TopK<>(k, MOST_FREQUENT_FIRST);
+        for (int i = 0; i < size; i++) {
+            top.offer(new Estimate(heap[i].key, heap[i].count, heap[i].error));
+        }
+        return top.toList();
+    }
+
+    private void siftUp(int position) {
+        var counter = heap[position];
+        while (position > 0) {
+            var parent = (position - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(counter, position);
+    }
+
+    private void siftDown(int position) {
+        var counter = heap[position];
+        var half = size >>> 1;
+        while (position < half) {
+            var child = 2 * position + 1;
+            var right = child + 1;
+            if (right < size && heap[right].count < heap[child].count) {
+                child = right;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(counter, position);
+    }
+
+    private void place(Counter counter, int position) {
+        heap[position] = counter;
+        counter.position = position;
+    }
+
+    /**
+     * @param count estimated count, never lower than the true count
+     * @param error by how much {@code count} may overestimate the true count
+     */
+    record Estimate(String key, long count, long error) {
+    }
+
+    private static final class Counter {
+
+        private String key;
+        private long count;
+        private long error;
+        private int position;
+
+        private Counter(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.util.json.GsonFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Progress of incremental history sync of a single channel, saved next to its export.
+ * <p>
+ * {@code latestTs} is the high-watermark: the newest message fetched by completed runs. While a run is in progress,
+ * the cursor of the next page and the size of the export after the last saved page are recorded too, so an
+ * interrupted run can drop anything written after the checkpoint and continue from that page.
+ */
+final class SyncState {
+
+    String channel;
+    String latestTs;
+
+    String runOldest;
+    String runLatest;
+    String runCursor;
+    String runNewestTs;
+    long exportSize;
+
+    static Path pathFor(Path export) {
+        return export.resolveSibling(export.getFileName() + ".sync");
+    }
+
+    static SyncState load(Path path, String channel) throws IOException {
+        if (!Files.exists(path)) {
+            var state = new SyncState();
+            state.channel = channel;
+            return state;
+        }
+        var state = GsonFactory.createSnakeCase().fromJson(Files.readString(path), SyncState.class);
+        if (!channel.equals(state.channel)) {
+            throw new IOException("Sync state " + path + " belongs to channel " + state.channel);
+        }
+        return state;
+    }
+
+    void save(Path path) throws IOException {
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temporary, GsonFactory.createSnakeCase().toJson(this));
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    boolean inProgress() {
+        return runOldest != null;
+    }
+
+    void start(String oldest, String latest) {
+        runOldest = oldest;
+        runLatest = latest;
+        runCursor = "";
+        runNewestTs = null;
+    }
+
+    /**
+     * @param cursor cursor of the next page, {@code null} after the last page
+     */
+    void checkpoint(String cursor, long exportSize) {
+        this.runCursor = cursor;
+        this.exportSize = exportSize;
+    }
+
+    void finish() {
+        latestTs = max(latestTs, runNewestTs);
+        runOldest = null;
+        runLatest = null;
+        runCursor = null;
+        runNewestTs = null;
+        exportSize = 0;
+    }
+
+    /**
+     * @return {@code true} if {@code ts} is newer than {@code watermark} or there is no watermark yet
+     */
+    static boolean isAfter(String ts, String watermark) {
+        return watermark == null || ts == null || new BigDecimal(ts).compareTo(new BigDecimal(watermark)) > 0;
+    }
+
+    static String max(String ts, String other) {
+        if (ts == null) {
+            return other;
+        }
+        if (other == null) {
+            return ts;
+        }
+        return new BigDecimal(other).compareTo(new BigDecimal(ts)) > 0 ? other : ts;
+    }
+}
@@ -0,0 +1,181 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Writes messages followed by replies of their threads.
+ * <p>
+ * Replies are fetched asynchronously, at most {@code concurrency} threads at a time, while further history pages
+ * are still being fetched. Further threads are queued and their fetches started as earlier ones complete.
+ * Messages are queued until replies of all preceding threads are written, so the output keeps the original order.
+ * Once {@code concurrency} threads are pending, {@link #write(List)} waits for the oldest one.
+ * <p>
+ * With {@code concurrency} of 0 replies are not fetched and messages are written straight away.
+ */
+final class ThreadRepliesPipeline implements Closeable {
+
+    private final SlackClient client;
+    private final String token;
+    private final String channel;
+    private final MessagesWriter writer;
+    private final int maxPending;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private int pendingThreads;
+    // threads whose replies are not being fetched yet, guarded by itself like inFlight
+    private final Deque<Pending> queued = new ArrayDeque<>();
+    private int inFlight;
+    private boolean closed;
+
+    ThreadRepliesPipeline(SlackClient client, String token, String channel, MessagesWriter writer, int concurrency) {
+        this.client = client;
+        this.token = token;
+        this.channel = channel;
+        this.writer = writer;
+        this.maxPending = concurrency;
+    }
+
+    void write(List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            var thread = new Pending(message, null);
+            if (maxPending > 0 && Optional.ofNullable(message.getReplyCount()).orElse(0) > 0) {
+                thread = new Pending(message, new CompletableFuture<>());
+                pendingThreads++;
+                synchronized (queued) {
+                    queued.addLast(thread);
+                }
+            }
+            pending.addLast(thread);
+        }
+        startQueued();
+        drain(false);
+    }
+
+    /**
+     * Starts fetching replies of queued threads while fewer than {@code concurrency} fetches are in flight.
+     * Called again whenever a fetch completes, possibly on a thread of the HTTP client.
+     */
+    private void startQueued() {
+        var started = new ArrayList<Pending>();
+        synchronized (queued) {
+            while (!closed && inFlight < maxPending && !queued.isEmpty()) {
+                started.add(queued.removeFirst());
+                inFlight++;
+            }
+        }
+        for (Pending thread : started) {
+            fetchReplies(thread.message().getTs()).whenComplete((replies, error) -> {
+                synchronized (queued) {
+                    inFlight--;
+                }
+                if (error != null) {
+                    thread.replies().completeExceptionally(error);
+                } else {
+                    thread.replies().complete(replies);
+                }
+                startQueued();
+            });
+        }
+    }
+
+    /**
+     * Waits for all pending replies and writes them.
+     */
+    void flush() throws IOException {
+        drain(true);
+    }
+
+    private void drain(boolean all) throws IOException {
+        var written = writer.count();
+        var writeNanos = 0L;
+        try {
+            while (!pending.isEmpty()) {
+                var head = pending.peekFirst();
+                var mustWait = all || pendingThreads >= maxPending;
+                if (head.replies() != null && !head.replies().isDone() && !mustWait) {
+                    return;
+                }
+                pending.removeFirst();
+                var started = System.nanoTime();
+                writer.write(head.message());
+                writeNanos += System.nanoTime() - started;
+                if (head.replies() != null) {
+                    pendingThreads--;
+                    // waiting for replies is not part of the write stage
+                    var replies = await(head);
+                    started = System.nanoTime();
+                    writer.write(replies);
+                    writeNanos += System.nanoTime() - started;
+                }
+            }
+        } finally {
+            Metrics.global().processed("write", writer.count() - written, writeNanos);
+        }
+    }
+
+    private List<Message> await(Pending thread) throws IOException {
+        try {
+            return thread.replies().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching replies");
+        } catch (ExecutionException e) {
+            throw new IOException("Error while fetching replies of message " + thread.message().getTs() + " in channel " + channel, e.getCause());
+        }
+    }
+
+    CompletableFuture<List<Message>> fetchReplies(String ts) {
+        return fetchReplies(ts, "", new ArrayList<>());
+    }
+
+    private CompletableFuture<List<Message>> fetchReplies(String ts, String cursor, List<Message> replies) {
+        return client.callAsync("conversations.replies", methods -> methods.conversationsReplies(r -> r
+                        .token(token)
+                        .channel(channel)
+                        .ts(ts)
+                        .limit(ConversationsHistory.DEFAULT_LIMIT)
+                        .cursor(cursor)
+                ))
+                .thenCompose(result -> {
+                    if (!result.isOk()) {
+                        return CompletableFuture.failedFuture(new IOException("Slack Web API failure. Error: '" + result.getError() + "'"));
+                    }
+                    Metrics.global().counter("sleuth_pages_fetched_total", "method", "conversations.replies").increment();
+
+                    // the parent message is returned too, it is already written
+                    Optional.ofNullable(result.getMessages()).orElse(List.of()).stream()
+                            .filter(message -> !ts.equals(message.getTs()))
+                            .forEach(replies::add);
+
+                    if (result.isHasMore()) {
+                        return fetchReplies(ts, result.getResponseMetadata().getNextCursor(), replies);
+                    }
+                    return CompletableFuture.completedFuture(ConversationsHistory.filter(replies));
+                });
+    }
+
+    @Override
+    public void close() {
+        synchronized (queued) {
+            closed = true;
+            queued.clear();
+        }
+        pending.stream()
+                .filter(thread -> thread.replies() != null)
+                .forEach(thread -> thread.replies().cancel(true));
+        pending.clear();
+    }
+
+    private record Pending(Message message, CompletableFuture<List<Message>> replies) {
+    }
+}
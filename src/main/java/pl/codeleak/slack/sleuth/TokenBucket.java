@@ -0,0 +1,57 @@
+package pl.codeleak.slack.sleuth;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter. Callers reserve a permit and get back how long they have to wait for it,
+ * so waiting happens outside the lock and concurrent callers are queued fairly.
+ */
+final class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private final LongSupplier nanoTime;
+
+    private double permits;
+    private long refilledAt;
+    private long blockedUntil;
+
+    TokenBucket(double permitsPerSecond, int capacity) {
+        this(permitsPerSecond, capacity, System::nanoTime);
+    }
+
+    TokenBucket(double permitsPerSecond, int capacity, LongSupplier nanoTime) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.nanoTime = nanoTime;
+        this.permits = capacity;
+        this.refilledAt = nanoTime.getAsLong();
+        this.blockedUntil = refilledAt;
+    }
+
+    /**
+     * Takes a permit, possibly ahead of time.
+     *
+     * @return nanoseconds to wait before the permit may be used
+     */
+    synchronized long reserve() {
+        var now = nanoTime.getAsLong();
+        refill(now);
+        permits -= 1;
+        var waitForPermit = permits >= 0 ? 0 : (long) Math.ceil(-permits / permitsPerNano);
+        return Math.max(waitForPermit, blockedUntil - now);
+    }
+
+    /**
+     * Makes all callers wait at least {@code nanos}, e.g. when the server asked to retry later.
+     */
+    synchronized void block(long nanos) {
+        blockedUntil = Math.max(blockedUntil, nanoTime.getAsLong() + nanos);
+    }
+
+    private void refill(long now) {
+        permits = Math.min(capacity, permits + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,49 @@
+package pl.codeleak.slack.sleuth;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the {@code k} best elements offered so far in a bounded heap, which takes O(n log k) time and O(k) memory
+ * instead of sorting all n elements.
+ */
+final class TopK<T> {
+
+    private final int k;
+    private final Comparator<? super T> order;
+    private final PriorityQueue<T> heap;
+
+    /**
+     * @param order ranks the best element first
+     */
+    TopK(int k, Comparator<? super T> order) {
+        this.k = k;
+        this.order = order;
+        // the worst retained element sits on top of the heap, so it is the one to evict
+        this.heap = new PriorityQueue<>(Math.min(k, 64), order.reversed());
+    }
+
+    void offer(T element) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (order.compare(element, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    int size() {
+        return heap.size();
+    }
+
+    /**
+     * @return retained elements, best first
+     */
+    List<T> toList() {
+        var result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+}
@@ -0,0 +1,144 @@
+package pl.codeleak.slack.sleuth;
+
+import com.google.gson.reflect.TypeToken;
+import com.slack.api.model.User;
+import com.slack.api.util.json.GsonFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+
+/**
+ * Names of users, cached on disk between runs.
+ * <p>
+ * Entries older than {@code ttl} are fetched again. The cache holds at most {@code capacity} users, the least recently
+ * used ones are evicted first. Missing users are resolved in one batch of asynchronous {@code users.info} calls.
+ */
+@Slf4j
+final class UserDirectory {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    static final class Entry {
+        String id;
+        String name;
+        String realName;
+        long fetchedAt;
+    }
+
+    private final Path path;
+    private final long ttlMillis;
+    private final LongSupplier currentTimeMillis;
+    // in access order, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries;
+    private final UsersInfo usersInfo = new UsersInfo();
+
+    private UserDirectory(Path path, Duration ttl, int capacity, LongSupplier currentTimeMillis) {
+        this.path = path;
+        this.ttlMillis = ttl.toMillis();
+        this.currentTimeMillis = currentTimeMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    static UserDirectory load(Path path, Duration ttl, int capacity) throws IOException {
+        return load(path, ttl, capacity, System::currentTimeMillis);
+    }
+
+    static UserDirectory load(Path path, Duration ttl, int capacity, LongSupplier currentTimeMillis) throws IOException {
+        var directory = new UserDirectory(path, ttl, capacity, currentTimeMillis);
+        if (Files.exists(path)) {
+            List<Entry> saved = GsonFactory.createSnakeCase().fromJson(Files.readString(path), new TypeToken<List<Entry>>() {
+            }.getType());
+            Optional.ofNullable(saved).orElse(List.of()).forEach(entry -> directory.entries.put(entry.id, entry));
+        }
+        return directory;
+    }
+
+    /**
+     * Saves entries least recently used first, so the order survives the next {@link #load}.
+     */
+    void save() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temporary, GsonFactory.createSnakeCase().toJson(new ArrayList<>(entries.values())));
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the user if it is cached and has not expired yet
+     */
+    Optional<Entry> get(String id) {
+        var entry = entries.get(id);
+        if (entry == null || currentTimeMillis.getAsLong() - entry.fetchedAt >= ttlMillis) {
+            return Optional.empty();
+        }
+        return Optional.of(entry);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Fetches users that are not cached or have expired. All calls are in flight together.
+     * Users that cannot be fetched are logged and left unresolved.
+     *
+     * @return number of fetched users
+     */
+    int resolve(SlackClient client, String token, Collection<String> ids) {
+        var metrics = Metrics.global();
+        var hits = metrics.counter("sleuth_user_cache_lookups_total", "result", "hit");
+        var misses = metrics.counter("sleuth_user_cache_lookups_total", "result", "miss");
+        metrics.gauge("sleuth_user_cache_hit_ratio", () -> hits.value() + misses.value() == 0 ? 0
+                : (double) hits.value() / (hits.value() + misses.value()));
+        var missing = ids.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .filter(id -> {
+                    var cached = get(id).isPresent();
+                    (cached ? hits : misses).increment();
+                    return !cached;
+                })
+                .toList();
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        log.info("Fetching {} user(s)", missing.size());
+        var results = new LinkedHashMap<String, CompletableFuture<User>>();
+        for (String id : missing) {
+            results.put(id, usersInfo.fetchUserInfoAsync(client, token, id));
+        }
+
+        var fetched = 0;
+        for (var result : results.entrySet()) {
+            try {
+                var user = result.getValue().join();
+                var entry = new Entry();
+                entry.id = result.getKey();
+                entry.name = user.getName();
+                entry.realName = user.getRealName();
+                entry.fetchedAt = currentTimeMillis.getAsLong();
+                entries.put(entry.id, entry);
+                fetched++;
+            } catch (CompletionException e) {
+                log.warn("Failed to fetch user {}: {}", result.getKey(), e.getCause().getMessage());
+            }
+        }
+        return fetched;
+    }
+}
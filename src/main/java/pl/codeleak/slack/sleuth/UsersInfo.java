@@ -1,6 +1,5 @@
 package pl.codeleak.slack.sleuth;
 
-import com.slack.api.Slack;
 import com.slack.api.methods.SlackApiException;
 import com.slack.api.model.User;
 import lombok.extern.slf4j.Slf4j;
@@ -8,6 +7,7 @@ import picocli.CommandLine;
 
 import java.io.IOException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @CommandLine.Command(name = "user")
@@ -19,13 +19,12 @@ class UsersInfo implements Callable<Integer> {
     @CommandLine.Option(names = {"-u", "--user"}, required = true)
     private String user;
 
-    User fetchUserInfo(String token, String user) {
-        var client = Slack.getInstance().methods();
+    User fetchUserInfo(SlackClient client, String token, String user) {
         try {
-            var result = client.usersInfo(r -> r
+            var result = client.call("users.info", methods -> methods.usersInfo(r -> r
                     .token(token)
                     .user(user)
-            );
+            ));
 
             if (!result.isOk()) {
                 throw new RuntimeException("Error while fetching user info for [" + user + "]. Error: [" + result.getError() + "]");
@@ -38,10 +37,23 @@ class UsersInfo implements Callable<Integer> {
         }
     }
 
+    CompletableFuture<User> fetchUserInfoAsync(SlackClient client, String token, String user) {
+        return client.callAsync("users.info", methods -> methods.usersInfo(r -> r
+                        .token(token)
+                        .user(user)
+                ))
+                .thenApply(result -> {
+                    if (!result.isOk()) {
+                        throw new RuntimeException("Error while fetching user info for [" + user + "]. Error: [" + result.getError() + "]");
+                    }
+                    return result.getUser();
+                });
+    }
+
     @Override
     public Integer call() {
         try {
-            var userInfo = fetchUserInfo(app.slackToken, user);
+            var userInfo = fetchUserInfo(app.slackClient(), app.slackToken, user);
             var message = """
                     ℹ️ User info (id: %s):
                      - Name: %s
@@ -0,0 +1,123 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Conversation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelCatalogTest {
+
+    private static final Duration TTL = Duration.ofHours(1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void searchesChannelNamesBySubstring() throws IOException {
+        var catalog = ChannelCatalog.load(directory.resolve("channels.json"), TTL, () -> 1000);
+        catalog.update(List.of(
+                conversation("C000001", "general"),
+                conversation("C000002", "java-news"),
+                conversation("C000003", "javascript"),
+                conversation("C000004", "random")), 1000);
+
+        assertIterableEquals(List.of("java-news", "javascript"), names(catalog.search("java")));
+        assertIterableEquals(List.of("javascript"), names(catalog.search("Script")));
+        assertIterableEquals(List.of("general", "java-news"), names(catalog.search("ne")));
+        assertTrue(catalog.search("avax").isEmpty());
+    }
+
+    @Test
+    void reindexesOnlyChangedChannels() throws IOException {
+        var catalog = ChannelCatalog.load(directory.resolve("channels.json"), TTL, () -> 1000);
+        catalog.update(List.of(conversation("C000001", "general"), conversation("C000002", "java-news")), 1000);
+
+        catalog.update(List.of(conversation("C000002", "kotlin-news"), conversation("C000003", "java")), 2000);
+
+        assertIterableEquals(List.of("java"), names(catalog.search("java")));
+        assertIterableEquals(List.of("kotlin-news"), names(catalog.search("news")));
+        assertTrue(catalog.search("general").isEmpty());
+    }
+
+    @Test
+    void readsSnapshotSavedByPreviousRunUntilTtl() throws IOException {
+        var cache = directory.resolve("channels.json");
+        Files.writeString(cache, """
+                {"fetched_at": 1000, "channels": [{"id": "C000001", "name": "general"}]}
+                """);
+
+        var fresh = ChannelCatalog.load(cache, TTL, () -> 1000 + TTL.toMillis() - 1);
+        var stale = ChannelCatalog.load(cache, TTL, () -> 1000 + TTL.toMillis());
+
+        assertTrue(fresh.isFresh());
+        assertEquals("C000001", fresh.search("gen").get(0).id);
+        assertFalse(stale.isFresh());
+    }
+
+    @Test
+    void savesSnapshot() throws IOException {
+        var cache = directory.resolve("channels.json");
+        var catalog = ChannelCatalog.load(cache, TTL, () -> 1000);
+        catalog.update(List.of(conversation("C000001", "general")), 1000);
+        catalog.save();
+
+        var reloaded = ChannelCatalog.load(cache, TTL, () -> 2000);
+
+        assertTrue(reloaded.isFresh());
+        assertIterableEquals(List.of("general"), names(reloaded.channels()));
+    }
+
+    @Test
+    void fetchesChannelsInLargePagesOnlyWhenStale() throws IOException {
+        try (var slack = new MockSlack(2500, 0)) {
+            var now = new AtomicLong(1000);
+            var catalog = ChannelCatalog.load(directory.resolve("channels.json"), TTL, now::get);
+
+            assertTrue(catalog.refresh(slack.client(), "token"));
+            assertFalse(catalog.refresh(slack.client(), "token"));
+            // auth.test and three pages
+            assertEquals(4, slack.requests());
+            now.addAndGet(TTL.toMillis());
+            assertTrue(catalog.refresh(slack.client(), "token"));
+
+            assertEquals(2500, catalog.channels().size());
+            assertEquals(10, catalog.search("channel-0249").size());
+            assertEquals(8, slack.requests());
+        }
+    }
+
+    @Test
+    void fetchesChannelsAgainForAnotherWorkspace() throws IOException {
+        var cache = directory.resolve("channels.json");
+        Files.writeString(cache, """
+                {"fetched_at": 1000, "team_id": "T999999", "channels": [{"id": "C000001", "name": "general"}]}
+                """);
+        try (var slack = new MockSlack(2, 0)) {
+            var catalog = ChannelCatalog.load(cache, TTL, () -> 1000);
+
+            assertTrue(catalog.refresh(slack.client(), "token"));
+
+            assertIterableEquals(List.of("channel-00000", "channel-00001"), names(catalog.channels()));
+            assertFalse(ChannelCatalog.load(cache, TTL, () -> 1000).refresh(slack.client(), "token"));
+        }
+    }
+
+    private static Conversation conversation(String id, String name) {
+        var conversation = new Conversation();
+        conversation.setId(id);
+        conversation.setName(name);
+        return conversation;
+    }
+
+    private static List<String> names(List<ChannelCatalog.Entry> channels) {
+        return channels.stream().map(channel -> channel.name).toList();
+    }
+}
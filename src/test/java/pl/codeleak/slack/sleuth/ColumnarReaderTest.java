@@ -0,0 +1,126 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarReaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackFieldsUsedByAnalyzer() throws IOException {
+        var message = MessageFactory.postedWithReplies("U000001", "Hi <@U000002>, see #java and #java ąę", 3, 2);
+        message.setTs("1660000000.000123");
+        var export = write(List.of(message, MessageFactory.withTextOnly(null)));
+
+        var messages = new ArrayList<Message>();
+        var mentions = new ArrayList<String>();
+        var tags = new ArrayList<String>();
+        try (var reader = ColumnarReader.open(export)) {
+            assertEquals(2, reader.count());
+            reader.forEach(0, reader.count(), (read, tokens) -> {
+                messages.add(read);
+                for (int i = 0; i < tokens.mentionCount(); i++) {
+                    mentions.add(tokens.mention(i));
+                }
+                for (int i = 0; i < tokens.tagCount(); i++) {
+                    tags.add(tokens.tag(i));
+                }
+            });
+        }
+
+        assertEquals("1660000000.000123", messages.get(0).getTs());
+        assertEquals("U000001", messages.get(0).getUser());
+        assertEquals(message.getText(), messages.get(0).getText());
+        assertEquals(MessagesAnalyzer.calculateReactionsScore(message), MessagesAnalyzer.calculateReactionsScore(messages.get(0)));
+        assertNull(messages.get(1).getTs());
+        assertNull(messages.get(1).getUser());
+        assertEquals("", messages.get(1).getText());
+        assertIterableEquals(List.of("U000002"), mentions);
+        assertIterableEquals(List.of("#java"), tags);
+    }
+
+    @Test
+    void matchesStatisticsOfJsonExport() throws IOException {
+        var corpus = new SyntheticCorpus(20, 10, 7).generate(5_000);
+        var export = write(corpus);
+
+        var expected = MessagesStatistics.of(corpus);
+        var actual = new MessagesStatistics(Integer.MAX_VALUE, true);
+        try (var reader = ColumnarReader.open(export)) {
+            reader.forEachCompact(0, reader.count(), actual::accept);
+        }
+
+        assertEquals(expected.count(), actual.count());
+        assertSameGroups(expected.mentionedUsers(), actual.mentionedUsers());
+        assertSameGroups(expected.postingUsers(), actual.postingUsers());
+        assertSameGroups(expected.tags(), actual.tags());
+        assertIterableEquals(
+                expected.popularMessages().stream().map(scored -> scored.message().text()).toList(),
+                actual.popularMessages().stream().map(scored -> scored.message().text()).toList());
+    }
+
+    @Test
+    void readsRangesInParallel() throws IOException {
+        var export = write(new SyntheticCorpus(20, 10, 7).generate(5_000));
+
+        var sequential = new MessagesStatistics(Integer.MAX_VALUE, false);
+        MessagesStatistics parallel;
+        try (var reader = ColumnarReader.open(export);
+             var statistics = new ParallelStatistics(new MessagesStatistics(Integer.MAX_VALUE, false), 4)) {
+            reader.forEachCompact(0, reader.count(), sequential::accept);
+            for (int from = 0; from < reader.count(); from += 128) {
+                var start = from;
+                var end = Math.min(reader.count(), from + 128);
+                statistics.submit(end - start, partial -> reader.forEachCompact(start, end, partial::accept));
+            }
+            parallel = statistics.await();
+        }
+
+        assertEquals(sequential.count(), parallel.count());
+        assertSameGroups(sequential.tags(), parallel.tags());
+        assertIterableEquals(
+                sequential.popularMessages().stream().map(MessagesStatistics.Scored::sequence).toList(),
+                parallel.popularMessages().stream().map(MessagesStatistics.Scored::sequence).toList());
+    }
+
+    @Test
+    void isSmallerThanJsonExport() throws IOException {
+        var corpus = SyntheticCorpus.defaults().generate(10_000);
+        var json = directory.resolve("messages.json");
+        try (var writer = MessagesWriter.open(json, MessagesWriter.Format.JSON)) {
+            writer.write(corpus);
+        }
+
+        var columnar = write(corpus);
+
+        assertTrue(ColumnarReader.isColumnar(columnar));
+        assertFalse(ColumnarReader.isColumnar(json));
+        assertTrue(Files.size(columnar) < Files.size(json));
+    }
+
+    private Path write(List<Message> messages) throws IOException {
+        var export = directory.resolve("messages.sleuth");
+        try (var writer = MessagesWriter.open(export, MessagesWriter.Format.COLUMNAR)) {
+            writer.write(messages);
+        }
+        return export;
+    }
+
+    private static void assertSameGroups(List<MessagesStatistics.Group> expected, List<MessagesStatistics.Group> actual) {
+        assertIterableEquals(expected.stream().map(MessagesStatistics.Group::key).toList(),
+                actual.stream().map(MessagesStatistics.Group::key).toList());
+        assertIterableEquals(expected.stream().map(MessagesStatistics.Group::count).toList(),
+                actual.stream().map(MessagesStatistics.Group::count).toList());
+    }
+}
@@ -0,0 +1,61 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Reaction;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactMessageTest {
+
+    @Test
+    void projectsFieldsOfMessage() {
+        var message = MessageFactory.postedWithReplies("U000001", "Hi <@U000002>", 4, 2);
+        message.setTs("1000.000001");
+        message.setReactions(List.of(reaction(3), reaction(5)));
+
+        var compact = CompactMessage.of(message);
+
+        assertEquals(new CompactMessage("1000.000001", "U000001", "Hi <@U000002>", 8, 4, 2, (byte) 0), compact);
+        assertTrue(compact.isRegular());
+        assertEquals(14, compact.reactionsScore());
+        assertEquals(14, MessagesAnalyzer.calculateReactionsScore(message));
+    }
+
+    @Test
+    void defaultsMissingCountsToZero() {
+        var compact = CompactMessage.of(MessageFactory.withTextOnly("Hi"));
+
+        assertEquals(0, compact.reactions());
+        assertEquals(0, compact.replyCount());
+        assertEquals(0, compact.replyUsersCount());
+        assertEquals(0, compact.reactionsScore());
+    }
+
+    @Test
+    void flagsMessagesThatAreNotRegular() {
+        var joined = MessageFactory.withTextOnly("joined");
+        joined.setSubtype("channel_join");
+        var hidden = MessageFactory.withTextOnly("hidden");
+        hidden.setHidden(true);
+        var intro = MessageFactory.withTextOnly("intro");
+        intro.setIntro(true);
+        var empty = MessageFactory.withTextOnly("empty subtype");
+        empty.setSubtype("");
+
+        assertEquals(CompactMessage.SUBTYPE, CompactMessage.flags(joined));
+        assertEquals(CompactMessage.HIDDEN, CompactMessage.flags(hidden));
+        assertEquals(CompactMessage.INTRO, CompactMessage.flags(intro));
+        assertEquals(0, CompactMessage.flags(empty));
+        joined.setHidden(true);
+        assertEquals(CompactMessage.SUBTYPE | CompactMessage.HIDDEN, CompactMessage.flags(joined));
+        assertFalse(CompactMessage.of(joined).isRegular());
+    }
+
+    private static Reaction reaction(int count) {
+        var reaction = new Reaction();
+        reaction.setCount(count);
+        return reaction;
+    }
+}
@@ -0,0 +1,255 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationsHistoryTest {
+
+    @TempDir
+    Path output;
+
+    @Test
+    void fetchesEveryChannelToItsOwnFile() throws IOException {
+        try (var slack = new SlackStub().on("conversations.history", ConversationsHistoryTest::history)) {
+            var history = new ConversationsHistory();
+
+            var result = history.fetchHistories(slack.client(), "token", List.of("C000001", "C000002"),
+                    TimeRange.builder().build(), output);
+
+            assertEquals(0, result);
+            assertIterableEquals(List.of("C000001 #1", "C000001 #2"), texts(output.resolve("C000001.json")));
+            assertIterableEquals(List.of("C000002 #1", "C000002 #2"), texts(output.resolve("C000002.json")));
+        }
+    }
+
+    @Test
+    void failsWhenChannelCannotBeFetched() throws IOException {
+        try (var slack = new SlackStub().on("conversations.history", parameters -> Map.of("ok", false, "error", "channel_not_found"))) {
+            var history = new ConversationsHistory();
+
+            var result = history.fetchHistories(slack.client(), "token", List.of("C000001"),
+                    TimeRange.builder().build(), output);
+
+            assertEquals(-1, result);
+        }
+    }
+
+    @Test
+    void syncsOnlyNewMessages() throws IOException {
+        var channel = new ArrayList<Message>();
+        channel.add(message("1000.000001", "#1"));
+        channel.add(message("1000.000002", "#2"));
+
+        try (var slack = new SlackStub().on("conversations.history", parameters -> Map.of(
+                "ok", true,
+                "messages", channel.stream()
+                        .filter(message -> SyncState.isAfter(message.getTs(), parameters.get("oldest")))
+                        .sorted((m1, m2) -> m2.getTs().compareTo(m1.getTs()))
+                        .toList(),
+                "has_more", false))) {
+            var history = new ConversationsHistory();
+            var export = output.resolve("C000001.json");
+
+            assertEquals(0, history.syncHistory(slack.client(), "token", "C000001", TimeRange.builder().build(), export));
+            channel.add(message("1000.000003", "#3"));
+            assertEquals(0, history.syncHistory(slack.client(), "token", "C000001", TimeRange.builder().build(), export));
+
+            assertIterableEquals(List.of("#2", "#1", "#3"), texts(export));
+            assertEquals("1000.000003", SyncState.load(SyncState.pathFor(export), "C000001").latestTs);
+        }
+    }
+
+    @Test
+    void recoversSyncKilledBeforeFirstCheckpoint() throws IOException {
+        var channel = new ArrayList<Message>();
+        channel.add(message("1000.000001", "#1"));
+
+        try (var slack = new SlackStub().on("conversations.history", parameters -> Map.of(
+                "ok", true,
+                "messages", channel.stream()
+                        .filter(message -> SyncState.isAfter(message.getTs(), parameters.get("oldest")))
+                        .toList(),
+                "has_more", false))) {
+            var history = new ConversationsHistory();
+            var export = output.resolve("C000001.json");
+            var statePath = SyncState.pathFor(export);
+            assertEquals(0, history.syncHistory(slack.client(), "token", "C000001", TimeRange.builder().build(), export));
+            channel.add(message("1000.000002", "#2"));
+
+            // the run is killed right after the closing bracket is cut, before any page is fetched
+            history.openSync(SyncState.load(statePath, "C000001"), statePath, TimeRange.builder().build(), export);
+            assertTrue(SyncState.load(statePath, "C000001").inProgress());
+
+            assertEquals(0, history.syncHistory(slack.client(), "token", "C000001", TimeRange.builder().build(), export));
+            assertIterableEquals(List.of("#1", "#2"), texts(export));
+            assertFalse(SyncState.load(statePath, "C000001").inProgress());
+        }
+    }
+
+    @Test
+    void backfillsSlicesInSameOrderAsSequentialFetch() throws IOException {
+        var messages = List.of(
+                message("1000000.000001", "#4"),
+                message("900000.000000", "#3"),
+                message("500000.500000", "#2"),
+                message("100000.000000", "#1"));
+
+        try (var slack = new SlackStub().on("conversations.history", parameters -> Map.of(
+                "ok", true,
+                "messages", messages.stream()
+                        .filter(message -> SyncState.isAfter(message.getTs(), parameters.get("oldest")))
+                        .filter(message -> SyncState.isAfter(parameters.get("latest"), message.getTs()))
+                        .toList(),
+                "has_more", false))) {
+            var export = output.resolve("C000001.json");
+            var timeRange = TimeRange.builder()
+                    .from(LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC))
+                    .to(LocalDateTime.ofEpochSecond(2_000_000, 0, ZoneOffset.UTC))
+                    .build();
+
+            try (var writer = MessagesWriter.open(export, MessagesWriter.Format.JSON)) {
+                assertEquals(0, new ConversationsHistory().backfillHistory(slack.client(), "token", "C000001", timeRange, 500_000, writer));
+            }
+
+            assertIterableEquals(List.of("#4", "#3", "#2", "#1"), texts(export));
+        }
+    }
+
+    @Test
+    void handlesPagesInOrderWhileFetchingAhead() throws IOException {
+        var requested = new AtomicInteger();
+        try (var slack = new SlackStub().on("conversations.history", parameters -> {
+            var page = Integer.parseInt(parameters.getOrDefault("cursor", "").isEmpty() ? "0" : parameters.get("cursor"));
+            requested.incrementAndGet();
+            return Map.of(
+                    "ok", true,
+                    "messages", List.of(MessageFactory.withTextOnly("#" + page)),
+                    "has_more", page < 19,
+                    "response_metadata", Map.of("next_cursor", String.valueOf(page + 1)));
+        })) {
+            var texts = new ArrayList<String>();
+            var ahead = new ArrayList<Integer>();
+
+            var result = new ConversationsHistory().fetchPagesAhead(slack.client(), "token", "C000001", "0", "1", "",
+                    (messages, nextCursor) -> {
+                        messages.forEach(message -> texts.add(message.getText()));
+                        ahead.add(requested.get() - texts.size());
+                        sleep();
+                    });
+
+            assertEquals(0, result);
+            assertEquals(20, texts.size());
+            assertEquals("#0", texts.get(0));
+            assertEquals("#19", texts.get(19));
+            // queued pages, a page waiting to be queued and a page being fetched
+            assertTrue(ahead.stream().allMatch(pages -> pages <= 4 + 2), ahead.toString());
+            // some page was requested before the previous one was handled
+            assertTrue(ahead.stream().anyMatch(pages -> pages > 0), ahead.toString());
+        }
+    }
+
+    @Test
+    void stopsFetchingAheadWhenHandlerFails() throws IOException {
+        var requested = new AtomicInteger();
+        try (var slack = new SlackStub().on("conversations.history", parameters -> Map.of(
+                "ok", true,
+                "messages", List.of(MessageFactory.withTextOnly("#" + requested.incrementAndGet())),
+                "has_more", true,
+                "response_metadata", Map.of("next_cursor", "next")))) {
+
+            var failure = assertThrows(IOException.class, () -> new ConversationsHistory().fetchPagesAhead(slack.client(),
+                    "token", "C000001", "0", "1", "", (messages, nextCursor) -> {
+                        throw new IOException("disk full");
+                    }));
+
+            assertEquals("disk full", failure.getMessage());
+            var stopped = requested.get();
+            sleep();
+            // at most the request in flight when the handler failed
+            assertTrue(requested.get() <= stopped + 1);
+        }
+    }
+
+    @Test
+    void exportsWholeChannelDespiteRateLimits() throws IOException {
+        try (var slack = new MockSlack(1, 1000).pageLimit(100).rateLimitEvery(5)) {
+            var export = output.resolve("C00000000.json");
+
+            var result = new ConversationsHistory().fetchHistory(slack.client(), "token", MockSlack.channelId(0),
+                    TimeRange.builder().build(), export);
+
+            assertEquals(0, result);
+            var ts = new ArrayList<String>();
+            try (var reader = MessagesReader.open(export)) {
+                reader.forEach((Message message) -> ts.add(message.getTs()));
+            }
+            assertEquals(1000, ts.size());
+            assertEquals(MockSlack.ts(999), ts.get(0));
+            assertEquals(MockSlack.ts(0), ts.get(999));
+            assertTrue(slack.rateLimited() > 0);
+        }
+    }
+
+    @Test
+    void slicesTimeRangeWithoutGaps() {
+        var slices = ConversationsHistory.slices(0, 250, 100);
+
+        assertIterableEquals(List.of(
+                new ConversationsHistory.Slice("150", "250"),
+                new ConversationsHistory.Slice("50", "150.000001"),
+                new ConversationsHistory.Slice("0", "50.000001")), slices);
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Message message(String ts, String text) {
+        var message = MessageFactory.withTextOnly(text);
+        message.setTs(ts);
+        return message;
+    }
+
+    // two pages per channel, the first one ends with a join message that is filtered out
+    private static Object history(Map<String, String> parameters) {
+        var channel = parameters.get("channel");
+        var cursor = parameters.getOrDefault("cursor", "");
+        if (cursor.isEmpty()) {
+            var join = MessageFactory.postedBy("U000000", "joined");
+            join.setSubtype("channel_join");
+            return Map.of(
+                    "ok", true,
+                    "messages", List.of(MessageFactory.postedBy("U000001", channel + " #1"), join),
+                    "has_more", true,
+                    "response_metadata", Map.of("next_cursor", "page-2"));
+        }
+        return Map.of(
+                "ok", true,
+                "messages", List.of(MessageFactory.postedBy("U000001", channel + " #2")),
+                "has_more", false);
+    }
+
+    private static List<String> texts(Path export) throws IOException {
+        var texts = new ArrayList<String>();
+        try (var reader = MessagesReader.open(export)) {
+            reader.forEach((Message message) -> texts.add(message.getText()));
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,81 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static pl.codeleak.slack.sleuth.MessageFactory.postedAt;
+
+/**
+ * JSON exports written by tests, and the checks shared by components that process exports incrementally, like
+ * {@link SearchIndex}, {@link Rollups} and {@link LiveExports}.
+ */
+final class ExportFixtures {
+
+    interface Updater {
+
+        /**
+         * @return number of messages processed
+         */
+        long update(Path export) throws IOException;
+    }
+
+    private ExportFixtures() {
+    }
+
+    static Path path(Path directory) {
+        return directory.resolve("messages.json");
+    }
+
+    /**
+     * Writes the export anew.
+     */
+    static Path write(Path directory, Message... messages) throws IOException {
+        var export = path(directory);
+        try (var writer = MessagesWriter.open(export, MessagesWriter.Format.JSON)) {
+            writer.write(List.of(messages));
+        }
+        return export;
+    }
+
+    static void append(Path export, Message... messages) throws IOException {
+        try (var writer = MessagesWriter.append(export, MessagesWriter.Format.JSON)) {
+            writer.write(List.of(messages));
+        }
+    }
+
+    /**
+     * Checks that only messages appended to the export are processed: {@code 1000.000001} "#java deploy" first and
+     * then {@code 1000.000002} "#java deploy again", both posted by {@code U000001}.
+     */
+    static void assertProcessesOnlyAppendedMessages(Path directory, Updater updater) throws IOException {
+        var export = write(directory, postedAt("1000.000001", "U000001", "#java deploy"));
+        assertEquals(1, updater.update(export));
+        assertEquals(0, updater.update(export));
+
+        append(export, postedAt("1000.000002", "U000001", "#java deploy again"));
+
+        assertEquals(1, updater.update(export));
+        assertEquals(0, updater.update(export));
+    }
+
+    /**
+     * Checks that a rewritten export is processed again: {@code 1000.000001} "#java deploy" is replaced by
+     * {@code 1000.000003} "#kotlin rollback of the deploy" of {@code U000002} and {@code 1000.000002} "#kotlin deploy"
+     * of {@code U000001}.
+     */
+    static void assertProcessesRewrittenExportAgain(Path directory, Updater updater) throws IOException {
+        var export = write(directory, postedAt("1000.000001", "U000001", "#java deploy"));
+        assertEquals(1, updater.update(export));
+
+        write(directory,
+                postedAt("1000.000003", "U000002", "#kotlin rollback of the deploy"),
+                postedAt("1000.000002", "U000001", "#kotlin deploy"));
+
+        assertEquals(2, updater.update(export));
+        assertEquals(0, updater.update(export));
+    }
+}
@@ -0,0 +1,98 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static pl.codeleak.slack.sleuth.MessageFactory.postedAt;
+
+class ExportStateTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsOnlyAppendedPartOfJsonExport() throws IOException {
+        readsOnlyAppendedPart(directory.resolve("messages.json"), MessagesWriter.Format.JSON);
+    }
+
+    @Test
+    void readsOnlyAppendedPartOfNdjsonExport() throws IOException {
+        readsOnlyAppendedPart(directory.resolve("messages.ndjson"), MessagesWriter.Format.NDJSON);
+    }
+
+    @Test
+    void skipsProcessedMessagesOfStateWithoutAppendOffset() throws IOException {
+        var export = ExportFixtures.write(directory, postedAt("1000.000001", "U000001", "first"));
+        var state = new ExportState();
+        assertEquals(1, state.readNew(export, message -> {
+        }));
+        state.appendOffset = 0;
+
+        ExportFixtures.append(export, postedAt("1000.000002", "U000001", "second"));
+
+        assertIterableEquals(List.of("second"), texts(state, export));
+    }
+
+    @Test
+    void readsRewrittenExportFromStart() throws IOException {
+        var export = ExportFixtures.write(directory, postedAt("1000.000001", "U000001", "first"));
+        var state = new ExportState();
+        state.readNew(export, message -> {
+        });
+
+        ExportFixtures.write(directory, postedAt("1000.000003", "U000001", "third"), postedAt("1000.000002", "U000001", "second"));
+
+        assertIterableEquals(List.of("third", "second"), texts(state, export));
+        assertEquals(2, state.count);
+    }
+
+    /**
+     * Breaks the last processed message, past the checksummed head of the export, which only a read from the start
+     * would notice.
+     */
+    private void readsOnlyAppendedPart(Path export, MessagesWriter.Format format) throws IOException {
+        try (var writer = MessagesWriter.open(export, format)) {
+            for (int i = 0; i < 2000; i++) {
+                writer.write(postedAt("1000." + String.format("%06d", i), "U000001", "message " + i));
+            }
+        }
+        var state = new ExportState();
+        assertEquals(2000, state.readNew(export, message -> {
+        }));
+        assertTrue(state.appendOffset > 64 * 1024);
+        var content = Files.readAllBytes(export);
+        var lastBrace = state.appendOffset - 1;
+        while (content[(int) lastBrace] != '}') {
+            lastBrace--;
+        }
+        try (var channel = FileChannel.open(export, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'@'}), lastBrace);
+        }
+
+        try (var writer = MessagesWriter.append(export, format)) {
+            writer.write(postedAt("2000.000001", "U000002", "appended 1"));
+            writer.write(postedAt("2000.000002", "U000002", "appended 2"));
+        }
+
+        assertIterableEquals(List.of("appended 1", "appended 2"), texts(state, export));
+        assertEquals(2002, state.count);
+        assertEquals(Files.size(export), state.size);
+    }
+
+    private static List<String> texts(ExportState state, Path export) throws IOException {
+        var texts = new ArrayList<String>();
+        state.readNew(export, (Message message) -> texts.add(message.getText()));
+        return texts;
+    }
+}
@@ -0,0 +1,54 @@
+package pl.codeleak.slack.sleuth;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static pl.codeleak.slack.sleuth.MessageFactory.postedAt;
+
+class LiveExportsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void computesStatisticsOfTimeWindow() throws IOException {
+        var export = ExportFixtures.write(directory, 
+                postedAt("3000.000000", "U000002", "#kotlin"),
+                postedAt("2000.000000", "U000001", "#java"),
+                postedAt("1000.000000", "U000001", "#java"));
+        var exports = new LiveExports(export);
+        exports.refresh();
+
+        assertEquals(3, exports.statistics(0, 4000, 3).count());
+        var window = exports.statistics(1000, 3000, 3);
+        assertEquals(1, window.count());
+        assertEquals("#java", window.tags().get(0).key());
+        assertSame(window, exports.statistics(1000, 3000, 3));
+        var open = exports.statistics(1000, LiveExports.UNBOUNDED, 3);
+        assertEquals(2, open.count());
+        assertSame(open, exports.statistics(1000, LiveExports.UNBOUNDED, 3));
+    }
+
+    @Test
+    void readsOnlyAppendedMessagesOnRefresh() throws IOException {
+        var exports = new LiveExports(ExportFixtures.path(directory));
+
+        ExportFixtures.assertProcessesOnlyAppendedMessages(directory, export -> exports.refresh());
+
+        assertEquals(2, exports.statistics(0, 4000, 3).count());
+    }
+
+    @Test
+    void readsRewrittenExportAgain() throws IOException {
+        var exports = new LiveExports(ExportFixtures.path(directory));
+
+        ExportFixtures.assertProcessesRewrittenExportAgain(directory, export -> exports.refresh());
+
+        assertEquals(2, exports.count());
+        assertEquals("#kotlin", exports.statistics(0, 4000, 3).tags().get(0).key());
+    }
+}
@@ -17,6 +17,12 @@ class MessageFactory {
         return m;
     }
 
+    static Message postedAt(String ts, String user, String text) {
+        var m = postedBy(user, text);
+        m.setTs(ts);
+        return m;
+    }
+
     static Message withReactions(String text, int replyCount, int replyUsersCount) {
         var m = new Message();
         m.setText(text);
@@ -24,4 +30,11 @@ class MessageFactory {
         m.setReplyUsersCount(replyUsersCount);
         return m;
     }
+
+    static Message postedWithReplies(String user, String text, int replyCount, int replyUsersCount) {
+        var m = postedBy(user, text);
+        m.setReplyCount(replyCount);
+        m.setReplyUsersCount(replyUsersCount);
+        return m;
+    }
 }
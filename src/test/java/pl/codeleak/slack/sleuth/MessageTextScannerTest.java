@@ -0,0 +1,65 @@
+package pl.codeleak.slack.sleuth;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageTextScannerTest {
+
+    private static final List<String> TEXTS = List.of(
+            "",
+            "Hello!",
+            "Mentioning two users: <@U000000> and <@U000001>!",
+            "Same user three times <@U000000>, <@U000000>, <@U000000>!",
+            "Not closed <@U000000 and line breaks <@U00\n0001> <@U\u2028000> <@U\r\n>",
+            "Empty <@U> and nested <@U<@U000002>> and <@U>>",
+            "Tags: #one and #two, #one again, channels #Ctwo #Cthree",
+            "Line #1: #one\nLine #2: #one",
+            "Odd tags: ## #a #ab ##ab # space #\nnewline #_x #\u0105\u015b\u0107 #\uD83D\uDE00emoji",
+            "Mixed <@U#tag> #tag<@U000003>"
+    );
+
+    @Test
+    void matchesRegularExpressions() {
+        for (String text : TEXTS) {
+            assertEquals(byRegex(text, "<@(U.+?)>"), MessagesAnalyzer.extractMentionedUsers(text), text);
+            assertEquals(byRegex(text, "(#[^C]\\w+)"), MessagesAnalyzer.extractTags(text), text);
+        }
+    }
+
+    @Test
+    void reportsDistinctTokensInOrder() {
+        var scanner = new MessageTextScanner();
+        scanner.scan("#two <@U1> #one <@U2> #two <@U1>");
+
+        assertEquals(2, scanner.mentionCount());
+        assertEquals("U1", scanner.mention(0));
+        assertEquals("U2", scanner.mention(1));
+        assertEquals(2, scanner.tagCount());
+        assertEquals("#two", scanner.tag(0));
+        assertEquals("#one", scanner.tag(1));
+    }
+
+    @Test
+    void treatsMissingTextAsEmpty() {
+        var scanner = new MessageTextScanner();
+        scanner.scan(null);
+
+        assertEquals(0, scanner.mentionCount());
+        assertEquals(0, scanner.tagCount());
+    }
+
+    private static Set<String> byRegex(String text, String regex) {
+        var results = new LinkedHashSet<String>();
+        var matcher = Pattern.compile(regex).matcher(text);
+        while (matcher.find()) {
+            results.add(matcher.group(1));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,59 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagesReaderTest {
+
+    @Test
+    void readsJsonArray() throws IOException {
+        var messages = read(write(MessagesWriter.Format.JSON,
+                MessageFactory.postedBy("U000000", "Message #1"),
+                MessageFactory.postedBy("U000001", "Message #2")));
+
+        assertEquals(2, messages.size());
+        assertEquals("U000000", messages.get(0).getUser());
+        assertEquals("Message #2", messages.get(1).getText());
+    }
+
+    @Test
+    void readsNewlineDelimitedJson() throws IOException {
+        var messages = read(write(MessagesWriter.Format.NDJSON,
+                MessageFactory.postedBy("U000000", "Message #1"),
+                MessageFactory.withReactions("Message #2", 3, 1)));
+
+        assertEquals(2, messages.size());
+        assertEquals("U000000", messages.get(0).getUser());
+        assertEquals(3, messages.get(1).getReplyCount());
+    }
+
+    @Test
+    void readsEmptyInput() throws IOException {
+        assertEquals(0, read("").size());
+        assertEquals(0, read("[]").size());
+    }
+
+    private static String write(MessagesWriter.Format format, Message... messages) throws IOException {
+        var output = new StringWriter();
+        try (var writer = new MessagesWriter(output, format)) {
+            writer.write(List.of(messages));
+        }
+        return output.toString();
+    }
+
+    private static List<Message> read(String input) throws IOException {
+        var messages = new ArrayList<Message>();
+        try (var reader = new MessagesReader(new StringReader(input))) {
+            reader.forEach(messages::add);
+        }
+        return messages;
+    }
+}
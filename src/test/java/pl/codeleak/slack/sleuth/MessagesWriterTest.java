@@ -0,0 +1,105 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagesWriterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void appendsToJsonArray() throws IOException {
+        var export = directory.resolve("export.json");
+        write(MessagesWriter.open(export, MessagesWriter.Format.JSON), "#1");
+        write(MessagesWriter.append(export, MessagesWriter.Format.JSON), "#2", "#3");
+
+        assertIterableEquals(List.of("#1", "#2", "#3"), texts(export));
+    }
+
+    @Test
+    void appendsToEmptyJsonArray() throws IOException {
+        var export = directory.resolve("export.json");
+        write(MessagesWriter.open(export, MessagesWriter.Format.JSON));
+        write(MessagesWriter.append(export, MessagesWriter.Format.JSON), "#1");
+
+        assertIterableEquals(List.of("#1"), texts(export));
+    }
+
+    @Test
+    void appendsToNewlineDelimitedJson() throws IOException {
+        var export = directory.resolve("export.ndjson");
+        write(MessagesWriter.append(export, MessagesWriter.Format.NDJSON), "#1");
+        write(MessagesWriter.append(export, MessagesWriter.Format.NDJSON), "#2");
+
+        assertIterableEquals(List.of("#1", "#2"), texts(export));
+    }
+
+    @Test
+    void resumesFromCheckpointDiscardingLaterWrites() throws IOException {
+        var export = directory.resolve("export.json");
+        var writer = MessagesWriter.open(export, MessagesWriter.Format.JSON);
+        writer.write(MessageFactory.withTextOnly("#1"));
+        writer.flush();
+        var checkpoint = Files.size(export);
+        writer.write(MessageFactory.withTextOnly("#2"));
+        writer.flush();
+        // the writer is never closed, as if the process was killed
+
+        write(MessagesWriter.resume(export, MessagesWriter.Format.JSON, checkpoint), "#3");
+
+        assertIterableEquals(List.of("#1", "#3"), texts(export));
+    }
+
+    @Test
+    void compressesExportEndingWithGz() throws IOException {
+        for (MessagesWriter.Format format : List.of(MessagesWriter.Format.JSON, MessagesWriter.Format.NDJSON)) {
+            var export = directory.resolve("export" + format.extension() + ".gz");
+            write(MessagesWriter.open(export, format), "#1", "#2");
+
+            try (var in = new GZIPInputStream(Files.newInputStream(export))) {
+                assertTrue(new String(in.readAllBytes(), StandardCharsets.UTF_8).contains("\"text\":\"#2\""));
+            }
+            assertIterableEquals(List.of("#1", "#2"), texts(export));
+            assertThrows(IOException.class, () -> MessagesWriter.append(export, format));
+        }
+    }
+
+    @Test
+    void readsDeflateCompressedExport() throws IOException {
+        var export = directory.resolve("export.json");
+        try (var out = new DeflaterOutputStream(Files.newOutputStream(export))) {
+            out.write("[{\"text\":\"#1\"}]".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertIterableEquals(List.of("#1"), texts(export));
+    }
+
+    private static void write(MessagesWriter writer, String... texts) throws IOException {
+        try (writer) {
+            for (String text : texts) {
+                writer.write(MessageFactory.withTextOnly(text));
+            }
+        }
+    }
+
+    private static List<String> texts(Path export) throws IOException {
+        var texts = new ArrayList<String>();
+        try (var reader = MessagesReader.open(export)) {
+            reader.forEach((Message message) -> texts.add(message.getText()));
+        }
+        return texts;
+    }
+}
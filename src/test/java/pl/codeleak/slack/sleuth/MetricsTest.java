@@ -0,0 +1,60 @@
+package pl.codeleak.slack.sleuth;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @Test
+    void reportsCountersAndHistogramsInPrometheusFormat() {
+        var metrics = new Metrics();
+        metrics.counter("sleuth_pages_fetched_total", "method", "conversations.history").add(3);
+        var latency = metrics.histogram("sleuth_api_call_seconds", "method", "users.info");
+        latency.record(TimeUnit.MILLISECONDS.toNanos(3));
+        latency.record(TimeUnit.SECONDS.toNanos(60));
+
+        var report = metrics.report(Metrics.Format.PROMETHEUS);
+
+        assertTrue(report.contains("# TYPE sleuth_pages_fetched_total counter\n"
+                + "sleuth_pages_fetched_total{method=\"conversations.history\"} 3\n"), report);
+        assertTrue(report.contains("# TYPE sleuth_api_call_seconds histogram\n"), report);
+        assertTrue(report.contains("sleuth_api_call_seconds_bucket{method=\"users.info\",le=\"0.001\"} 0\n"), report);
+        assertTrue(report.contains("sleuth_api_call_seconds_bucket{method=\"users.info\",le=\"0.005\"} 1\n"), report);
+        assertTrue(report.contains("sleuth_api_call_seconds_bucket{method=\"users.info\",le=\"30.0\"} 1\n"), report);
+        assertTrue(report.contains("sleuth_api_call_seconds_bucket{method=\"users.info\",le=\"+Inf\"} 2\n"), report);
+        assertTrue(report.contains("sleuth_api_call_seconds_count{method=\"users.info\"} 2\n"), report);
+    }
+
+    @Test
+    void reportsRateOfStages() {
+        var metrics = new Metrics();
+        metrics.processed("write", 1000, TimeUnit.MILLISECONDS.toNanos(250));
+        metrics.processed("write", 1000, TimeUnit.MILLISECONDS.toNanos(250));
+
+        var report = metrics.report(Metrics.Format.JSON);
+
+        assertTrue(report.contains("\"name\": \"sleuth_stage_messages_per_second\""), report);
+        assertTrue(report.contains("\"value\": 4000.0"), report);
+        assertTrue(report.contains("\"value\": 2000\n"), report);
+    }
+
+    @Test
+    void recordsPhases() {
+        var metrics = new Metrics();
+        byte[][] allocated = new byte[2][];
+        try (var phase = metrics.phase("analyze")) {
+            allocated[0] = new byte[1 << 20];
+            phase.suspend();
+            allocated[1] = new byte[16 << 20];
+            phase.resume();
+        }
+
+        assertEquals(1, metrics.histogram("sleuth_phase_seconds", "phase", "analyze").count());
+        var bytes = metrics.counter("sleuth_phase_allocated_bytes_total", "phase", "analyze").value();
+        assertTrue(bytes >= 1 << 20, "allocated " + bytes);
+        assertTrue(bytes < 16 << 20, "allocated " + bytes);
+    }
+}
@@ -0,0 +1,200 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Local Slack Web API endpoint serving a synthetic workspace, for load tests of the real commands without a workspace
+ * and its rate limits.
+ * <p>
+ * The workspace has {@code channels} public channels named {@code channel-00000} and so on, each with
+ * {@code messagesPerChannel} messages from {@link SyntheticCorpus}, one per second from {@link #FIRST_TS}. Messages
+ * are generated for every page on demand, so the server holds none of them. {@code conversations.list},
+ * {@code conversations.history} and {@code users.info} are served with cursors like Slack does, optionally with
+ * {@link #latency}, a smaller {@link #pageLimit} than requested and {@link #rateLimitEvery every n-th request}
+ * rejected with HTTP 429. Requests are served by a {@link SlackStub}.
+ */
+final class MockSlack implements AutoCloseable {
+
+    static final long FIRST_TS = 1_600_000_000;
+
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final SyntheticCorpus corpus = SyntheticCorpus.defaults();
+    private final int channels;
+    private final int messagesPerChannel;
+    private final SlackStub stub;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile int pageLimit = Integer.MAX_VALUE;
+    private volatile int rateLimitEvery;
+
+    MockSlack(int channels, int messagesPerChannel) throws IOException {
+        this.channels = channels;
+        this.messagesPerChannel = messagesPerChannel;
+        stub = new SlackStub()
+                .on("auth.test", throttled(parameters ->
+                        Map.of("ok", true, "team_id", "T000001", "user_id", "U000000")))
+                .on("conversations.list", throttled(this::conversationsList))
+                .on("conversations.history", throttled(this::conversationsHistory))
+                .on("users.info", throttled(this::usersInfo));
+    }
+
+    /**
+     * Delays every response.
+     */
+    MockSlack latency(Duration latency) {
+        this.latencyMillis = latency.toMillis();
+        return this;
+    }
+
+    /**
+     * Limits pages to at most {@code limit} items, whatever the request asks for.
+     */
+    MockSlack pageLimit(int limit) {
+        this.pageLimit = limit;
+        return this;
+    }
+
+    /**
+     * Rejects every n-th request with HTTP 429 and {@code Retry-After: 1}, 0 to accept all of them.
+     */
+    MockSlack rateLimitEvery(int requests) {
+        this.rateLimitEvery = requests;
+        return this;
+    }
+
+    String url() {
+        return stub.url();
+    }
+
+    /**
+     * @return client making calls as fast as the server answers them
+     */
+    SlackClient client() {
+        return SlackClient.connect(url(), false);
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    long rateLimited() {
+        return rateLimited.get();
+    }
+
+    static String channelId(int channel) {
+        return "C%08d".formatted(channel);
+    }
+
+    static String ts(int index) {
+        return (FIRST_TS + index) + ".000000";
+    }
+
+    /**
+     * Counts the request, applies the latency and rejects every {@link #rateLimitEvery n-th} request.
+     */
+    private Function<Map<String, String>, Object> throttled(Function<Map<String, String>, Object> handler) {
+        return parameters -> {
+            var request = requests.incrementAndGet();
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Map.of("ok", false, "error", "request_timeout");
+                }
+            }
+            if (rateLimitEvery > 0 && request % rateLimitEvery == 0) {
+                rateLimited.incrementAndGet();
+                return new SlackStub.Response(429, Map.of("Retry-After", "1"),
+                        Map.of("ok", false, "error", "ratelimited"));
+            }
+            return handler.apply(parameters);
+        };
+    }
+
+    private Object conversationsList(Map<String, String> parameters) {
+        var offset = offset(parameters);
+        var end = Math.min(channels, offset + limit(parameters));
+        var page = new ArrayList<Map<String, Object>>();
+        for (int channel = offset; channel < end; channel++) {
+            page.add(Map.of("id", channelId(channel), "name", "channel-%05d".formatted(channel), "is_channel", true));
+        }
+        return Map.of(
+                "ok", true,
+                "channels", page,
+                "response_metadata", Map.of("next_cursor", end < channels ? String.valueOf(end) : ""));
+    }
+
+    /**
+     * Messages newer than {@code oldest} and older than {@code latest}, newest first.
+     */
+    private Object conversationsHistory(Map<String, String> parameters) {
+        var channel = parameters.getOrDefault("channel", "");
+        if (!channel.matches("C\\d{8}") || Integer.parseInt(channel.substring(1)) >= channels) {
+            return Map.of("ok", false, "error", "channel_not_found");
+        }
+        var first = bound(parameters.get("oldest"), 0, true);
+        var last = bound(parameters.get("latest"), messagesPerChannel, false);
+        var newest = last - offset(parameters);
+        var oldest = Math.max(first, newest - limit(parameters));
+        var page = new ArrayList<Message>();
+        for (int index = newest - 1; index >= oldest; index--) {
+            var message = corpus.message(index);
+            message.setTs(ts(index));
+            page.add(message);
+        }
+        var hasMore = oldest > first;
+        var body = new HashMap<String, Object>();
+        body.put("ok", true);
+        body.put("messages", page);
+        body.put("has_more", hasMore);
+        body.put("response_metadata", Map.of("next_cursor", hasMore ? String.valueOf(last - oldest) : ""));
+        return body;
+    }
+
+    private Object usersInfo(Map<String, String> parameters) {
+        var user = parameters.getOrDefault("user", "");
+        return Map.of("ok", true, "user", Map.of("id", user, "name", "user-" + user, "real_name", "User " + user));
+    }
+
+    /**
+     * @return index of the first message newer than {@code oldest}, or of the first one not older than
+     * {@code latest}, within the channel
+     */
+    private int bound(String ts, int missing, boolean oldest) {
+        if (ts == null || ts.isEmpty() || oldest && ts.equals("0")) {
+            return missing;
+        }
+        var micros = ColumnarWriter.micros(ts);
+        var index = oldest
+                ? Math.floorDiv(micros, 1_000_000) - FIRST_TS + 1
+                : Math.floorDiv(micros + 999_999, 1_000_000) - FIRST_TS;
+        return (int) Math.max(0, Math.min(messagesPerChannel, index));
+    }
+
+    private int limit(Map<String, String> parameters) {
+        var limit = Integer.parseInt(parameters.getOrDefault("limit", "0"));
+        return Math.min(pageLimit, limit > 0 ? limit : DEFAULT_LIMIT);
+    }
+
+    private static int offset(Map<String, String> parameters) {
+        var cursor = parameters.getOrDefault("cursor", "");
+        return cursor.isEmpty() ? 0 : Integer.parseInt(cursor);
+    }
+
+    @Override
+    public void close() {
+        stub.close();
+    }
+}
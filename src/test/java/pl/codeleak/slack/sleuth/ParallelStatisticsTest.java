@@ -0,0 +1,89 @@
+package pl.codeleak.slack.sleuth;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelStatisticsTest {
+
+    // few users and tags, so there are plenty of ties to order
+    private final List<com.slack.api.model.Message> messages = new SyntheticCorpus(20, 10, 7).generate(5_000);
+
+    @Test
+    void matchesSequentialStatistics() {
+        var sequential = new MessagesStatistics(Integer.MAX_VALUE, true);
+        messages.forEach(sequential);
+
+        MessagesStatistics parallel;
+        try (var statistics = new ParallelStatistics(new MessagesStatistics(Integer.MAX_VALUE, true), 4, 128)) {
+            messages.forEach(statistics);
+            parallel = statistics.await();
+        }
+
+        assertEquals(sequential.count(), parallel.count());
+        assertSameGroups(sequential.mentionedUsers(), parallel.mentionedUsers());
+        assertSameGroups(sequential.postingUsers(), parallel.postingUsers());
+        assertSameGroups(sequential.tags(), parallel.tags());
+        assertIterableEquals(sequential.popularMessages(), parallel.popularMessages());
+    }
+
+    @Test
+    void matchesSequentialStatisticsOfSeveralFilteredInputs() {
+        Predicate<CompactMessage> filter = message -> message.text().hashCode() % 3 != 0;
+        var inputs = List.of(messages.subList(0, 2_000), messages.subList(2_000, messages.size()));
+        var sequential = new MessagesStatistics(Integer.MAX_VALUE, true);
+        sequential.restrictTo(filter);
+        inputs.forEach(input -> input.forEach(sequential));
+
+        var parallel = new MessagesStatistics(Integer.MAX_VALUE, true);
+        parallel.restrictTo(filter);
+        for (var input : inputs) {
+            try (var statistics = new ParallelStatistics(parallel, 4, 128)) {
+                input.forEach(statistics);
+                statistics.await();
+            }
+        }
+
+        assertEquals(sequential.count(), parallel.count());
+        assertIterableEquals(sequential.popularMessages(), parallel.popularMessages());
+    }
+
+    @Test
+    void keepsApproximateCountsWithinErrorBound() {
+        // more users than counters in the sketches
+        var messages = SyntheticCorpus.defaults().generate(20_000);
+        var exact = new MessagesStatistics(Integer.MAX_VALUE, false);
+        messages.forEach(exact);
+        var exactCounts = new HashMap<String, Integer>();
+        exact.postingUsers().forEach(group -> exactCounts.put(group.key(), group.count()));
+
+        MessagesStatistics approximate;
+        try (var statistics = new ParallelStatistics(MessagesStatistics.approximate(5, 0.01), 4, 1_000)) {
+            messages.forEach(statistics);
+            approximate = statistics.await();
+        }
+
+        var bound = 0.01 * messages.size();
+        var top = approximate.postingUsers();
+        assertEquals(5, top.size());
+        for (MessagesStatistics.Group group : top) {
+            var actual = exactCounts.get(group.key());
+            assertTrue(group.count() >= actual);
+            assertTrue(group.count() - actual <= bound);
+        }
+        assertEquals(exact.postingUsers().get(0).key(), top.get(0).key());
+    }
+
+    private static void assertSameGroups(List<MessagesStatistics.Group> expected, List<MessagesStatistics.Group> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).key(), actual.get(i).key());
+            assertEquals(expected.get(i).count(), actual.get(i).count());
+            assertIterableEquals(expected.get(i).messages(), actual.get(i).messages());
+        }
+    }
+}
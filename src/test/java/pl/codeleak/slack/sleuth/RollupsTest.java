@@ -0,0 +1,106 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import com.slack.api.model.Reaction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollupsTest {
+
+    // Monday, 2024-01-01T00:00:00Z
+    private static final long MONDAY = 1_704_067_200L;
+    private static final long DAY = 86_400L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void computesTopTagsPerWeek() throws IOException {
+        var export = ExportFixtures.write(directory, 
+                message(MONDAY + 8 * DAY, "U000001", "#kotlin or #java?"),
+                message(MONDAY + 7 * DAY, "U000002", "#kotlin"),
+                message(MONDAY + 2 * DAY, "U000001", "#java again"),
+                message(MONDAY + 3600, "U000002", "#java and #kotlin"));
+
+        var rollups = Rollups.open(directory.resolve("messages.rollups"));
+        assertEquals(4, rollups.update(export));
+
+        var periods = rollups.top(Rollups.Metric.TAGS, Rollups.Granularity.WEEK, 0, MONDAY + 14 * DAY, 1);
+
+        assertEquals(2, periods.size());
+        assertEquals(LocalDateTime.of(2024, 1, 1, 0, 0), periods.get(0).start());
+        assertEquals(List.of(new Rollups.Count("#java", 2)), periods.get(0).top());
+        assertEquals(LocalDateTime.of(2024, 1, 8, 0, 0), periods.get(1).start());
+        assertEquals(List.of(new Rollups.Count("#kotlin", 2)), periods.get(1).top());
+    }
+
+    @Test
+    void keepsHourlyCountersPerUser() throws IOException {
+        var popular = message(MONDAY + 60, "U000001", "Hi <@U000002>");
+        var reaction = new Reaction();
+        reaction.setCount(3);
+        popular.setReactions(List.of(reaction));
+        var export = ExportFixtures.write(directory, popular, message(MONDAY + 120, "U000001", "Hi"), message(MONDAY + 3600, "U000002", "Hi"));
+
+        var rollups = Rollups.open(directory.resolve("messages.rollups"));
+        rollups.update(export);
+
+        var messages = rollups.top(Rollups.Metric.MESSAGES, Rollups.Granularity.HOUR, MONDAY, MONDAY + DAY, 5);
+        assertEquals(List.of(new Rollups.Count("U000001", 2)), messages.get(0).top());
+        assertEquals(List.of(new Rollups.Count("U000002", 1)), messages.get(1).top());
+        assertEquals(List.of(new Rollups.Count("U000002", 1)),
+                rollups.top(Rollups.Metric.MENTIONS, Rollups.Granularity.DAY, MONDAY, MONDAY + DAY, 5).get(0).top());
+        assertEquals(List.of(new Rollups.Count("U000001", 3)),
+                rollups.top(Rollups.Metric.REACTIONS, Rollups.Granularity.DAY, MONDAY, MONDAY + DAY, 5).get(0).top());
+        assertEquals(1, rollups.top(Rollups.Metric.MESSAGES, Rollups.Granularity.HOUR, MONDAY + 1, MONDAY + DAY, 5).size());
+    }
+
+    @Test
+    void returnsOnlyBucketsInRangeAfterReopening() throws IOException {
+        var messages = new Message[48];
+        for (int hour = 0; hour < messages.length; hour++) {
+            messages[hour] = message(MONDAY + hour * 3600L, "U00000" + hour % 3, "#java");
+        }
+        var path = directory.resolve("messages.rollups");
+        Rollups.open(path).update(ExportFixtures.write(directory, messages));
+
+        var periods = Rollups.open(path).top(Rollups.Metric.MESSAGES, Rollups.Granularity.HOUR,
+                MONDAY + 5 * 3600, MONDAY + 7 * 3600, 5);
+
+        assertEquals(List.of(LocalDateTime.of(2024, 1, 1, 5, 0), LocalDateTime.of(2024, 1, 1, 6, 0)),
+                periods.stream().map(Rollups.Period::start).toList());
+        assertEquals(List.of(new Rollups.Count("U000002", 1)), periods.get(0).top());
+        assertEquals(List.of(new Rollups.Count("U000000", 1)), periods.get(1).top());
+    }
+
+    @Test
+    void aggregatesOnlyMessagesAppendedSinceLastUpdate() throws IOException {
+        var path = directory.resolve("messages.rollups");
+
+        ExportFixtures.assertProcessesOnlyAppendedMessages(directory, export -> Rollups.open(path).update(export));
+
+        assertEquals(List.of(new Rollups.Count("#java", 2)),
+                Rollups.open(path).top(Rollups.Metric.TAGS, Rollups.Granularity.YEAR, 0, MONDAY, 5).get(0).top());
+    }
+
+    @Test
+    void aggregatesRewrittenExportAgain() throws IOException {
+        var rollups = Rollups.open(directory.resolve("messages.rollups"));
+
+        ExportFixtures.assertProcessesRewrittenExportAgain(directory, rollups::update);
+
+        assertEquals(List.of(new Rollups.Count("#kotlin", 2)),
+                rollups.top(Rollups.Metric.TAGS, Rollups.Granularity.DAY, 0, MONDAY, 5).get(0).top());
+    }
+
+    private static Message message(long seconds, String user, String text) {
+        return MessageFactory.postedAt(seconds + ".000100", user, text);
+    }
+}
@@ -0,0 +1,122 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static pl.codeleak.slack.sleuth.MessageFactory.postedAt;
+
+class SearchIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsMessagesContainingAllTerms() throws IOException {
+        var export = ExportFixtures.write(directory, 
+                postedAt("1000.000003", "U000001", "Deploy of #backend failed again"),
+                postedAt("1000.000002", "U000002", "The deploy went fine, thanks <@U000001>"),
+                postedAt("1000.000001", "U000001", "Lunch?"));
+
+        try (var index = SearchIndex.open(directory.resolve("index"), 2)) {
+            assertEquals(3, index.update(export));
+
+            assertIterableEquals(List.of("1000.000003", "1000.000002"), search(index, "deploy"));
+            assertIterableEquals(List.of("1000.000003"), search(index, "DEPLOY", "failed"));
+            assertIterableEquals(List.of("1000.000002"), search(index, "deploy", "mention:U000001"));
+            assertIterableEquals(List.of("1000.000003", "1000.000001"), search(index, "user:U000001"));
+            assertIterableEquals(List.of("1000.000003"), search(index, SearchIndex.tagTerm("Backend")));
+            assertIterableEquals(List.of(), search(index, "deploy", "lunch"));
+        }
+    }
+
+    @Test
+    void filtersByTimeRange() throws IOException {
+        var export = ExportFixtures.write(directory, 
+                postedAt("3000.000000", "U000001", "deploy"),
+                postedAt("2000.000000", "U000001", "deploy"),
+                postedAt("1000.000000", "U000001", "deploy"));
+
+        try (var index = SearchIndex.open(directory.resolve("index"))) {
+            index.update(export);
+
+            var messages = index.search(new SearchIndex.Query(List.of("deploy"), "1000", "3000"), 10);
+
+            assertIterableEquals(List.of("2000.000000"), messages.stream().map(Message::getTs).toList());
+        }
+    }
+
+    @Test
+    void indexesOnlyMessagesAppendedSinceLastUpdate() throws IOException {
+        var indexDirectory = directory.resolve("index");
+        ExportFixtures.assertProcessesOnlyAppendedMessages(directory, export -> {
+            try (var index = SearchIndex.open(indexDirectory)) {
+                return index.update(export);
+            }
+        });
+
+        try (var index = SearchIndex.open(indexDirectory)) {
+            assertIterableEquals(List.of("1000.000002", "1000.000001"), search(index, "deploy"));
+        }
+    }
+
+    @Test
+    void indexesRewrittenExportAgain() throws IOException {
+        try (var index = SearchIndex.open(directory.resolve("index"))) {
+            ExportFixtures.assertProcessesRewrittenExportAgain(directory, index::update);
+
+            assertIterableEquals(List.of("1000.000003", "1000.000002"), search(index, "deploy"));
+            assertIterableEquals(List.of(), search(index, SearchIndex.tagTerm("java")));
+        }
+    }
+
+    @Test
+    void appendsToLastSegmentUntilItIsFull() throws IOException {
+        var export = ExportFixtures.write(directory, postedAt("1000.000001", "U000001", "deploy"));
+        var indexDirectory = directory.resolve("index");
+        try (var index = SearchIndex.open(indexDirectory, 2)) {
+            index.update(export);
+            ExportFixtures.append(export, postedAt("1000.000002", "U000001", "deploy again"));
+            index.update(export);
+
+            assertEquals(1, index.segmentCount());
+
+            ExportFixtures.append(export, postedAt("1000.000003", "U000001", "deploy once more"));
+            index.update(export);
+
+            assertEquals(2, index.segmentCount());
+            assertIterableEquals(List.of("1000.000003", "1000.000002", "1000.000001"), search(index, "deploy"));
+            assertIterableEquals(List.of("1000.000002"), search(index, "again"));
+        }
+        try (var files = Files.list(indexDirectory)) {
+            assertEquals(2, files.filter(file -> file.toString().endsWith(".postings")).count());
+        }
+    }
+
+    @Test
+    void storesPostingsSortedByTerm() throws IOException {
+        var path = directory.resolve("terms.postings");
+        Postings.write(path, Map.of("zebra", new int[]{1}, "apple", new int[]{0, 5, 300, 70_000}, "żółw", new int[]{2}));
+
+        try (var postings = Postings.open(path)) {
+            assertEquals(3, postings.termCount());
+            assertArrayEquals(new int[]{0, 5, 300, 70_000}, postings.get("apple"));
+            assertArrayEquals(new int[]{1}, postings.get("zebra"));
+            assertArrayEquals(new int[]{2}, postings.get("żółw"));
+            assertArrayEquals(new int[0], postings.get("banana"));
+        }
+    }
+
+    private static List<String> search(SearchIndex index, String... terms) throws IOException {
+        var query = new SearchIndex.Query(List.of(terms).stream().map(term -> term.contains(":") ? term : term.toLowerCase()).toList(),
+                "0", "9999999999");
+        return index.search(query, 10).stream().map(Message::getTs).toList();
+    }
+}
@@ -0,0 +1,104 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentWriterTest {
+
+    // 2022-08-02T00:00:00Z
+    private static final long DAY = 1659398400;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void splitsExportByDay() throws IOException {
+        try (var writer = MessagesWriter.segmented(directory, MessagesWriter.Format.NDJSON, SegmentWriter.Partitioning.DAY)) {
+            writer.write(message(DAY + 7200, "#3"));
+            writer.write(message(DAY + 3600, "#2"));
+            writer.write(reply(DAY - 60, DAY + 60, "#1 reply"));
+            writer.write(message(DAY - 60, "#1"));
+        }
+
+        var manifest = SegmentManifest.load(directory);
+        assertEquals(2, manifest.segments.size());
+        var latest = manifest.segments.get(0);
+        assertEquals("2022-08-02.ndjson", latest.file);
+        assertEquals(2, latest.count);
+        assertEquals(DAY + 3600 + ".000000", latest.oldestTs);
+        assertEquals(DAY + 7200 + ".000000", latest.latestTs);
+        var oldest = manifest.segments.get(1);
+        assertEquals("2022-08-01.ndjson", oldest.file);
+        assertEquals(DAY - 60 + ".000000", oldest.oldestTs);
+        assertEquals(DAY + 60 + ".000000", oldest.latestTs);
+        assertIterableEquals(List.of("#1 reply", "#1"), texts(directory.resolve("2022-08-01.ndjson")));
+    }
+
+    @Test
+    void appendsToSegmentSeenAgain() throws IOException {
+        try (var writer = MessagesWriter.segmented(directory, MessagesWriter.Format.JSON, SegmentWriter.Partitioning.WEEK)) {
+            writer.write(message(DAY, "#3"));
+            writer.write(message(DAY - 7 * 86400, "#2"));
+            writer.write(message(DAY - 60, "#1"));
+        }
+
+        var manifest = SegmentManifest.load(directory);
+        assertEquals(2, manifest.segments.size());
+        assertEquals("2022-08-01.json", manifest.segments.get(0).file);
+        assertEquals(2, manifest.segments.get(0).count);
+        assertIterableEquals(List.of("#3", "#1"), texts(directory.resolve("2022-08-01.json")));
+    }
+
+    @Test
+    void selectsSegmentsOverlappingTimeRange() throws IOException {
+        try (var writer = MessagesWriter.segmented(directory, MessagesWriter.Format.NDJSON, SegmentWriter.Partitioning.DAY)) {
+            writer.write(message(DAY + 2 * 86400, "#3"));
+            writer.write(message(DAY + 86400, "#2"));
+            writer.write(message(DAY, "#1"));
+        }
+
+        var segments = SegmentManifest.load(directory).overlapping(Long.toString(DAY + 3600), Long.toString(DAY + 86400 + 3600));
+
+        assertIterableEquals(List.of("2022-08-03.ndjson"), segments.stream().map(segment -> segment.file).toList());
+    }
+
+    @Test
+    void skipsMessagesOutsideTimeRange() {
+        var statistics = new MessagesStatistics(Integer.MAX_VALUE, false);
+        statistics.restrictTo(message -> SyncState.isAfter(message.ts(), Long.toString(DAY)));
+
+        statistics.accept(message(DAY, "#java"));
+        statistics.accept(message(DAY + 1, "#kotlin"));
+
+        assertEquals(1, statistics.count());
+        assertIterableEquals(List.of("#kotlin"), statistics.tags().stream().map(MessagesStatistics.Group::key).toList());
+    }
+
+    private static Message message(long seconds, String text) {
+        var message = MessageFactory.withTextOnly(text);
+        message.setTs(seconds + ".000000");
+        return message;
+    }
+
+    private static Message reply(long threadSeconds, long seconds, String text) {
+        var message = message(seconds, text);
+        message.setThreadTs(threadSeconds + ".000000");
+        return message;
+    }
+
+    private static List<String> texts(Path export) throws IOException {
+        var texts = new ArrayList<String>();
+        try (var reader = MessagesReader.open(export)) {
+            reader.forEach((Message message) -> texts.add(message.getText()));
+        }
+        return texts;
+    }
+}
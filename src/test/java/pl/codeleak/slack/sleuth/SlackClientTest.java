@@ -0,0 +1,104 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.methods.response.users.UsersInfoResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlackClientTest {
+
+    @Test
+    void retriesRateLimitedCalls() throws Exception {
+        var client = new SlackClient(null);
+        var attempts = new AtomicInteger();
+
+        var response = client.call("users.info", methods ->
+                attempts.incrementAndGet() == 1 ? response(false, "ratelimited") : response(true, null));
+
+        assertTrue(response.isOk());
+        assertEquals(2, attempts.get());
+        assertEquals(1, client.stats().throttled());
+        assertTrue(client.stats().waitedMillis() > 0);
+    }
+
+    @Test
+    void retriesNetworkErrorsUpToMaxAttempts() {
+        var client = new SlackClient(null, 3);
+        var attempts = new AtomicInteger();
+
+        assertThrows(IOException.class, () -> client.call("users.info", methods -> {
+            attempts.incrementAndGet();
+            throw new IOException("Connection reset");
+        }));
+        assertEquals(3, attempts.get());
+        assertEquals(2, client.stats().retries());
+    }
+
+    @Test
+    void returnsOtherErrorsWithoutRetrying() throws Exception {
+        var client = new SlackClient(null);
+
+        var response = client.call("users.info", methods -> response(false, "user_not_found"));
+
+        assertEquals("user_not_found", response.getError());
+        assertEquals(1, client.stats().calls());
+    }
+
+    @Test
+    void retriesRateLimitedAsyncCalls() {
+        var client = new SlackClient(null);
+        var attempts = new AtomicInteger();
+
+        var response = client.callAsync("users.info", methods -> CompletableFuture.completedFuture(
+                attempts.incrementAndGet() == 1 ? response(false, "ratelimited") : response(true, null))).join();
+
+        assertTrue(response.isOk());
+        assertEquals(2, attempts.get());
+        assertEquals(1, client.stats().throttled());
+    }
+
+    @Test
+    void failsAsyncCallsAfterMaxAttempts() {
+        var client = new SlackClient(null, 3);
+        var attempts = new AtomicInteger();
+
+        var response = client.callAsync("users.info", methods -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.<UsersInfoResponse>failedFuture(new IOException("Connection reset"));
+        });
+
+        var failure = assertThrows(CompletionException.class, response::join);
+        assertInstanceOf(IOException.class, failure.getCause());
+        assertEquals(3, attempts.get());
+        assertEquals(2, client.stats().retries());
+    }
+
+    @Test
+    void pacesCallsWithTokenBucket() {
+        var now = new AtomicLong();
+        var bucket = new TokenBucket(2, 2, now::get);
+
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), bucket.reserve());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        bucket.block(TimeUnit.SECONDS.toNanos(3));
+        assertEquals(TimeUnit.SECONDS.toNanos(3), bucket.reserve());
+    }
+
+    private static UsersInfoResponse response(boolean ok, String error) {
+        var response = new UsersInfoResponse();
+        response.setOk(ok);
+        response.setError(error);
+        return response;
+    }
+}
@@ -0,0 +1,116 @@
+package pl.codeleak.slack.sleuth;
+
+import com.google.gson.Gson;
+import com.slack.api.util.json.GsonFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Local Slack Web API endpoint serving canned responses. Each Web API method is handled by a function
+ * of the request parameters returning the response body, or a {@link Response} to answer with another status
+ * or extra headers.
+ */
+final class SlackStub implements AutoCloseable {
+
+    record Response(int status, Map<String, String> headers, Object body) {
+    }
+
+    private final Gson gson = GsonFactory.createSnakeCase();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Function<Map<String, String>, Object>> methods = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> peaks = new ConcurrentHashMap<>();
+    private final HttpServer server;
+
+    SlackStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        // asynchronous calls look up the team of the token first
+        on("auth.test", parameters -> Map.of("ok", true, "team_id", "T000001", "user_id", "U000000"));
+    }
+
+    SlackStub on(String method, Function<Map<String, String>, Object> handler) {
+        methods.put(method, handler);
+        return this;
+    }
+
+    String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/api/";
+    }
+
+    SlackClient client() {
+        return SlackClient.connect(url());
+    }
+
+    /**
+     * @return largest number of requests of the method that were handled at the same time
+     */
+    int peakConcurrency(String method) {
+        return peaks.getOrDefault(method, new AtomicInteger()).get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var method = exchange.getRequestURI().getPath().substring("/api/".length());
+            var handler = methods.get(method);
+            var concurrent = active.computeIfAbsent(method, key -> new AtomicInteger()).incrementAndGet();
+            peaks.computeIfAbsent(method, key -> new AtomicInteger()).accumulateAndGet(concurrent, Math::max);
+            Object body;
+            try {
+                body = handler == null
+                        ? Map.of("ok", false, "error", "unknown_method")
+                        : handler.apply(parameters(exchange));
+            } finally {
+                active.get(method).decrementAndGet();
+            }
+            var status = 200;
+            if (body instanceof Response response) {
+                status = response.status();
+                response.headers().forEach(exchange.getResponseHeaders()::set);
+                body = response.body();
+            }
+            var bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        var parameters = new HashMap<String, String>();
+        var query = exchange.getRequestURI().getRawQuery();
+        var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        for (String form : new String[]{query, body}) {
+            if (form == null || form.isBlank()) {
+                continue;
+            }
+            for (String pair : form.split("&")) {
+                var separator = pair.indexOf('=');
+                var key = separator < 0 ? pair : pair.substring(0, separator);
+                var value = separator < 0 ? "" : pair.substring(separator + 1);
+                parameters.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,50 @@
+package pl.codeleak.slack.sleuth;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpaceSavingTest {
+
+    @Test
+    void countsExactlyWithinCapacity() {
+        var sketch = new SpaceSaving(10);
+        for (String key : new String[]{"a", "b", "a", "c", "a", "b"}) {
+            sketch.add(key);
+        }
+
+        var top = sketch.top(2);
+
+        assertEquals(2, top.size());
+        assertEquals(new SpaceSaving.Estimate("a", 3, 0), top.get(0));
+        assertEquals(new SpaceSaving.Estimate("b", 2, 0), top.get(1));
+        assertEquals(0, sketch.maxError());
+    }
+
+    @Test
+    void findsHeavyHittersWithinErrorBound() {
+        var sketch = SpaceSaving.withError(0.01);
+        var counts = new HashMap<String, Long>();
+        var random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // every third key is a heavy hitter, the rest is long tail noise
+            var key = i % 3 == 0 ? "heavy-" + (i % 5) : "noise-" + random.nextInt(50_000);
+            counts.merge(key, 1L, Long::sum);
+            sketch.add(key);
+        }
+
+        var top = sketch.top(5);
+        var bound = (long) (0.01 * sketch.total());
+
+        assertEquals(5, top.size());
+        for (SpaceSaving.Estimate estimate : top) {
+            assertTrue(estimate.key().startsWith("heavy-"), estimate.key());
+            var actual = counts.get(estimate.key());
+            assertTrue(estimate.count() >= actual);
+            assertTrue(estimate.count() - actual <= bound);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Generates a reproducible corpus of messages resembling a busy channel: a few very active users and popular tags
+ * and a long tail of rare ones. Messages are built with {@link MessageFactory}.
+ */
+final class SyntheticCorpus {
+
+    private final int users;
+    private final int tags;
+    private final long seed;
+
+    SyntheticCorpus(int users, int tags, long seed) {
+        this.users = users;
+        this.tags = tags;
+        this.seed = seed;
+    }
+
+    static SyntheticCorpus defaults() {
+        return new SyntheticCorpus(1_000, 500, 42);
+    }
+
+    List<Message> generate(int size) {
+        var messages = new ArrayList<Message>(size);
+        generate(size, messages::add);
+        return messages;
+    }
+
+    void generate(int size, Consumer<Message> consumer) {
+        var random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            consumer.accept(message(random, i));
+        }
+    }
+
+    /**
+     * @return the message at the index of a corpus of any size, independent of other messages, so it can be
+     * generated on demand; unlike {@link #generate} messages are not drawn from one random sequence
+     */
+    Message message(int index) {
+        return message(new Random(seed * 1_000_003 + index), index);
+    }
+
+    private Message message(Random random, int i) {
+        var text = new StringBuilder("Message ").append(i);
+        var mentions = random.nextInt(3);
+        for (int j = 0; j < mentions; j++) {
+            text.append(" cc <@").append(user(random)).append('>');
+        }
+        if (random.nextInt(4) == 0) {
+            text.append(" about #tag").append(skewed(random, tags));
+        }
+        if (random.nextInt(10) == 0) {
+            text.append("\nSee <#C").append(random.nextInt(100)).append("> and #Cchannel");
+        }
+        var replyCount = random.nextInt(8) == 0 ? random.nextInt(50) : 0;
+        return MessageFactory.postedWithReplies(
+                user(random), text.toString(), replyCount, Math.min(replyCount, random.nextInt(10)));
+    }
+
+    private String user(Random random) {
+        return "U%06d".formatted(skewed(random, users));
+    }
+
+    // a cubed uniform value favours low indexes, giving a few heavy hitters and a long tail
+    private static int skewed(Random random, int bound) {
+        var r = random.nextDouble();
+        return (int) (r * r * r * bound);
+    }
+}
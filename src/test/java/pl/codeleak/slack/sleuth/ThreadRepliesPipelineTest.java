@@ -0,0 +1,122 @@
+package pl.codeleak.slack.sleuth;
+
+import com.slack.api.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadRepliesPipelineTest {
+
+    @Test
+    void writesRepliesRightAfterTheirParents() throws IOException {
+        try (var slack = new SlackStub().on("conversations.replies", ThreadRepliesPipelineTest::replies)) {
+            var buffer = new StringWriter();
+            try (var writer = new MessagesWriter(buffer, MessagesWriter.Format.NDJSON);
+                 var pipeline = new ThreadRepliesPipeline(slack.client(), "token", "C000001", writer, 2)) {
+                pipeline.write(List.of(thread("1", 2), message("2"), thread("3", 1)));
+                pipeline.write(List.of(thread("4", 1)));
+                pipeline.flush();
+            }
+
+            assertIterableEquals(List.of("1", "1 reply 1", "1 reply 2", "2", "3", "3 reply 1", "4", "4 reply 1"), texts(buffer));
+        }
+    }
+
+    @Test
+    void fetchesAtMostConcurrencyThreadsAtATime() throws IOException {
+        try (var slack = new SlackStub().on("conversations.replies", parameters -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Map.of("ok", true, "messages", List.of(message(parameters.get("ts") + " reply")), "has_more", false);
+        })) {
+            var threads = new ArrayList<Message>();
+            var expected = new ArrayList<String>();
+            for (int i = 0; i < 20; i++) {
+                threads.add(thread(String.valueOf(i), 1));
+                expected.addAll(List.of(String.valueOf(i), i + " reply"));
+            }
+            var buffer = new StringWriter();
+            // unpaced, so only the pipeline limits requests in flight
+            var client = SlackClient.connect(slack.url(), false);
+            try (var writer = new MessagesWriter(buffer, MessagesWriter.Format.NDJSON);
+                 var pipeline = new ThreadRepliesPipeline(client, "token", "C000001", writer, 3)) {
+                pipeline.write(threads);
+                pipeline.flush();
+            }
+
+            assertIterableEquals(expected, texts(buffer));
+            var peak = slack.peakConcurrency("conversations.replies");
+            assertTrue(peak > 0 && peak <= 3, "peak " + peak);
+        }
+    }
+
+    @Test
+    void writesMessagesOnlyWhenRepliesAreDisabled() throws IOException {
+        var buffer = new StringWriter();
+        try (var writer = new MessagesWriter(buffer, MessagesWriter.Format.NDJSON);
+             var pipeline = new ThreadRepliesPipeline(null, "token", "C000001", writer, 0)) {
+            pipeline.write(List.of(thread("1", 2), message("2")));
+            pipeline.flush();
+        }
+
+        assertIterableEquals(List.of("1", "2"), texts(buffer));
+    }
+
+    @Test
+    void failsWhenRepliesCannotBeFetched() throws IOException {
+        try (var slack = new SlackStub().on("conversations.replies", parameters -> Map.of("ok", false, "error", "thread_not_found"));
+             var pipeline = new ThreadRepliesPipeline(slack.client(), "token", "C000001",
+                     new MessagesWriter(new StringWriter(), MessagesWriter.Format.NDJSON), 2)) {
+            pipeline.write(List.of(thread("1", 1)));
+
+            assertThrows(IOException.class, pipeline::flush);
+        }
+    }
+
+    // the parent comes first, replies are split into pages of one
+    private static Object replies(Map<String, String> parameters) {
+        var ts = parameters.get("ts");
+        var cursor = parameters.getOrDefault("cursor", "");
+        var page = cursor.isEmpty() ? 0 : Integer.parseInt(cursor);
+        var replyCount = ts.equals("1") ? 2 : 1;
+        var messages = page == 0
+                ? List.of(message(ts), message(ts + " reply 1"))
+                : List.of(message(ts + " reply " + (page + 1)));
+        if (page + 1 < replyCount) {
+            return Map.of("ok", true, "messages", messages, "has_more", true,
+                    "response_metadata", Map.of("next_cursor", Integer.toString(page + 1)));
+        }
+        return Map.of("ok", true, "messages", messages, "has_more", false);
+    }
+
+    private static Message thread(String ts, int replyCount) {
+        var message = message(ts);
+        message.setReplyCount(replyCount);
+        return message;
+    }
+
+    // the text doubles as ts, so the parent can be told apart from its replies
+    private static Message message(String ts) {
+        var message = MessageFactory.withTextOnly(ts);
+        message.setTs(ts);
+        return message;
+    }
+
+    private static List<String> texts(StringWriter buffer) throws IOException {
+        var texts = new ArrayList<String>();
+        try (var reader = new MessagesReader(new StringReader(buffer.toString()))) {
+            reader.forEach((Message message) -> texts.add(message.getText()));
+        }
+        return texts;
+    }
+}
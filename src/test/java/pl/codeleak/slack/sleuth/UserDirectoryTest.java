@@ -0,0 +1,93 @@
+package pl.codeleak.slack.sleuth;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserDirectoryTest {
+
+    private static final Duration TTL = Duration.ofHours(1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsUsersSavedByPreviousRun() throws IOException {
+        var cache = directory.resolve("users.json");
+        Files.writeString(cache, """
+                [{"id": "U000001", "name": "john", "real_name": "John Doe", "fetched_at": 1000}]
+                """);
+
+        var users = UserDirectory.load(cache, TTL, 10, () -> 1000 + TTL.toMillis() - 1);
+
+        assertEquals("John Doe", users.get("U000001").orElseThrow().realName);
+        assertTrue(users.get("U000002").isEmpty());
+    }
+
+    @Test
+    void expiresUsersAfterTtl() throws IOException {
+        var cache = directory.resolve("users.json");
+        Files.writeString(cache, """
+                [{"id": "U000001", "name": "john", "real_name": "John Doe", "fetched_at": 1000}]
+                """);
+
+        var users = UserDirectory.load(cache, TTL, 10, () -> 1000 + TTL.toMillis());
+
+        assertTrue(users.get("U000001").isEmpty());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedUsers() throws IOException {
+        var cache = directory.resolve("users.json");
+        Files.writeString(cache, """
+                [{"id": "U000001", "fetched_at": 1000},
+                 {"id": "U000002", "fetched_at": 1000},
+                 {"id": "U000003", "fetched_at": 1000}]
+                """);
+
+        var users = UserDirectory.load(cache, TTL, 2, () -> 1000);
+
+        assertEquals(2, users.size());
+        assertTrue(users.get("U000001").isEmpty());
+        assertTrue(users.get("U000003").isPresent());
+    }
+
+    @Test
+    void fetchesOnlyUsersNotInCache() throws IOException {
+        var calls = new AtomicInteger();
+        try (var slack = new SlackStub().on("users.info", parameters -> {
+            calls.incrementAndGet();
+            return Map.of("ok", true, "user", Map.of("id", parameters.get("user"), "name", "name of " + parameters.get("user")));
+        })) {
+            var cache = directory.resolve("users.json");
+            var users = UserDirectory.load(cache, TTL, 10, () -> 1000);
+            assertEquals(2, users.resolve(slack.client(), "token", List.of("U000001", "U000002", "U000001")));
+            users.save();
+
+            var reloaded = UserDirectory.load(cache, TTL, 10, () -> 2000);
+            assertEquals(1, reloaded.resolve(slack.client(), "token", List.of("U000001", "U000002", "U000003")));
+
+            assertEquals(3, calls.get());
+            assertEquals("name of U000003", reloaded.get("U000003").orElseThrow().name);
+        }
+    }
+
+    @Test
+    void leavesUnknownUsersUnresolved() throws IOException {
+        try (var slack = new SlackStub().on("users.info", parameters -> Map.of("ok", false, "error", "user_not_found"))) {
+            var users = UserDirectory.load(directory.resolve("users.json"), TTL, 10, () -> 1000);
+
+            assertEquals(0, users.resolve(slack.client(), "token", List.of("U000001")));
+            assertTrue(users.get("U000001").isEmpty());
+        }
+    }
+}